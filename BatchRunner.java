@@ -0,0 +1,345 @@
+package calendar;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.UUID;
+import java.util.concurrent.locks.Lock;
+
+// runs a script of commands, one per line, without prompts or menus: a run of consecutive changes is applied
+// under one hold of the write lock, consecutive events added to the same calendar go in as one batch, and the
+// output is buffered until the script ends
+//
+// arguments are separated by spaces, and double quotes keep one together; times are local, e.g.
+// 2024-03-01T09:00, and users are given by username. Calendars, events and timers are given by ID or by a label
+// bound when they were added with "as <label>". Lines starting with # are comments. The commands are:
+//
+//   login <username>                              remove-user <username>
+//   add-calendar <name> [as <label>]             remove-calendar <calendar>
+//   rename-calendar <calendar> <name>             set-public <calendar> true|false
+//   set-visible <calendar> true|false             archive <calendar> <before>
+//   import <calendar> <ics file>                  export <calendar> <file> ICS|CSV
+//   add-event <calendar> <title> <start> <end> [<frequency> <repeat until>] [as <label>]
+//   remove-event <event>                          set-title <event> <title>
+//   set-start <event> <time>                      set-end <event> <time>
+//   set-repeat <event> <frequency> <until>        set-repeat <event> none
+//   share <event> <username>...
+//   add-timer <name> <end> [as <label>]           remove-timer <timer>
+//   theme light|dark    timezone <hours>
+//   calendars    timers    events day|week|month|year    search <query>...
+//   free <from> <to> <minutes> [<username>...]
+//
+// conflicts aren't confirmed, as there's no one to ask; the first failing command stops the script
+class BatchRunner {
+
+	// changes applied under one hold of the write lock, so readers on other threads still get in between
+	static final int BATCH_SIZE = IcsImporter.BATCH_SIZE;
+
+	private CalendarManager calendarManager;
+	private Renderer renderer;
+	private Session session;
+	private HashMap<String, UUID> labels;
+	private int lineNumber;
+	private int commands;
+
+	// events waiting to be added to their calendar together
+	private Calendar pendingCalendar;
+	private ArrayList<Event> pendingEvents;
+
+	BatchRunner(CalendarManager calendarManager, Renderer renderer) {
+		this.calendarManager = calendarManager;
+		this.renderer = renderer;
+		this.labels = new HashMap<String, UUID>();
+		this.pendingEvents = new ArrayList<Event>(BATCH_SIZE);
+	}
+
+	// returns the number of commands run
+	int run(Reader reader) throws IOException {
+		BufferedReader in = new BufferedReader(reader, 1 << 16);
+		Lock lock = this.calendarManager.writeLock();
+		ArrayList<String> command = new ArrayList<String>();
+		try {
+			boolean locked = false;
+			int lockedChanges = 0;
+			String line = in.readLine();
+			while (line != null) {
+				++this.lineNumber;
+				command.clear();
+				tokenize(line, command);
+				if (command.size() > 0 && !command.get(0).startsWith("#")) {
+					boolean isChange = isChange(command.get(0));
+					if (locked && (!isChange || lockedChanges >= BATCH_SIZE)) {
+						this.flush();
+						lock.unlock();
+						locked = false;
+					}
+					if (isChange && !locked) {
+						lock.lock();
+						locked = true;
+						lockedChanges = 0;
+					}
+					this.execute(command);
+					++lockedChanges;
+					++this.commands;
+				}
+				line = in.readLine();
+			}
+			if (locked) {
+				this.flush();
+				lock.unlock();
+			}
+		} catch (RuntimeException e) {
+			throw this.failed(e);
+		} catch (Error e) {
+			throw this.failed(e);
+		} finally {
+			// the events of the commands before a failed one are still added
+			this.flush();
+			// a failed command may leave the lock held
+			while (this.calendarManager.lock.isWriteLockedByCurrentThread()) {
+				lock.unlock();
+			}
+			this.renderer.flush();
+		}
+		return this.commands;
+	}
+
+	private Error failed(Throwable cause) {
+		return new Error("Line " + this.lineNumber + ": " + cause.getMessage(), cause);
+	}
+
+	private static boolean isChange(String name) {
+		return !name.equals("calendars") && !name.equals("timers") && !name.equals("events") && !name.equals("search")
+				&& !name.equals("free") && !name.equals("export");
+	}
+
+	private void execute(ArrayList<String> command) {
+		String name = command.get(0);
+		if (!name.equals("add-event")) {
+			this.flush();
+		}
+		if (name.equals("login")) {
+			this.session = this.calendarManager.login(argument(command, 1));
+			return;
+		}
+		if (this.session == null) {
+			throw new Error("You must login first");
+		}
+
+		if (name.equals("remove-user")) {
+			User user = this.user(argument(command, 1));
+			this.calendarManager.removeUser(user.userID);
+			if (user.userID.equals(this.session.userID)) {
+				this.session = null;
+			}
+		} else if (name.equals("add-calendar")) {
+			Calendar calendar = new Calendar(argument(command, 1), this.session.userID);
+			this.calendarManager.addCalendar(calendar);
+			this.added("calendar", calendar.calendarID, command, 2);
+		} else if (name.equals("remove-calendar")) {
+			this.calendarManager.removeCalendar(this.id(command, 1));
+		} else if (name.equals("rename-calendar")) {
+			this.calendar(command, 1).setCalendarName(argument(command, 2));
+		} else if (name.equals("set-public")) {
+			this.calendar(command, 1).setAccessibility(Boolean.parseBoolean(argument(command, 2)));
+		} else if (name.equals("set-visible")) {
+			this.calendar(command, 1).setVisibility(Boolean.parseBoolean(argument(command, 2)));
+		} else if (name.equals("archive")) {
+			int archived = this.calendar(command, 1).archiveEvents(this.time(command, 2));
+			this.renderer.appendText(archived + " events archived\n");
+		} else if (name.equals("import")) {
+			IcsImporter importer = IcsImporter.importEvents(new File(argument(command, 2)), this.calendar(command, 1));
+			this.renderer.appendText(importer.getImportedEvents() + " events imported, " + importer.getSkippedEvents()
+					+ " skipped\n");
+		} else if (name.equals("export")) {
+			EventExporter.Format format = EventExporter.Format.valueOf(argument(command, 3).toUpperCase());
+			int exported = Main.exportEvents(this.calendar(command, 1), new File(argument(command, 2)), format);
+			this.renderer.appendText(exported + " events exported\n");
+		} else if (name.equals("add-event")) {
+			this.addEvent(command);
+		} else if (name.equals("remove-event")) {
+			this.calendarManager.removeEvent(this.id(command, 1));
+		} else if (name.equals("set-title")) {
+			this.event(command, 1).setEventTitle(argument(command, 2));
+		} else if (name.equals("set-start")) {
+			this.event(command, 1).setStartTime(this.time(command, 2));
+		} else if (name.equals("set-end")) {
+			this.event(command, 1).setEndTime(this.time(command, 2));
+		} else if (name.equals("set-repeat")) {
+			this.event(command, 1).setRepeatable(this.repeatConfig(command, 2));
+		} else if (name.equals("share")) {
+			Event event = this.event(command, 1);
+			for (int i = 2; i < command.size(); ++i) {
+				event.shareEventWith(this.user(command.get(i)).userID);
+			}
+		} else if (name.equals("add-timer")) {
+			CountdownTimer timer = new CountdownTimer(argument(command, 1), this.time(command, 2), this.session.userID, null);
+			this.calendarManager.addTimer(timer);
+			this.added("timer", timer.timerID, command, 3);
+		} else if (name.equals("remove-timer")) {
+			this.calendarManager.removeTimer(this.id(command, 1));
+		} else if (name.equals("theme")) {
+			this.calendarManager.setTheme(CalendarTheme.valueOf(argument(command, 1).toUpperCase()));
+		} else if (name.equals("timezone")) {
+			this.calendarManager.setTimeZone(Integer.parseInt(argument(command, 1)));
+		} else if (name.equals("calendars")) {
+			ArrayList<Calendar> calendars = this.calendarManager.getCalendars(this.session.userID, true);
+			for (int i = 0; i < calendars.size(); ++i) {
+				this.renderer.appendCalendar(calendars.get(i)).appendText("\n\n");
+			}
+		} else if (name.equals("timers")) {
+			ArrayList<CountdownTimer> timers = this.calendarManager.getTimers(this.session.userID);
+			for (int i = 0; i < timers.size(); ++i) {
+				this.renderer.appendTimer(timers.get(i)).appendText("\n\n");
+			}
+		} else if (name.equals("events")) {
+			ViewPeriod period = ViewPeriod.valueOf(argument(command, 1).toUpperCase());
+			Main.renderEventsByPeriod(this.renderer, this.session.userID, true, period);
+		} else if (name.equals("search")) {
+			StringBuilder query = new StringBuilder();
+			for (int i = 1; i < command.size(); ++i) {
+				query.append(command.get(i)).append(' ');
+			}
+			ArrayList<Event> results = this.calendarManager.searchEvent(this.session.userID, query.toString());
+			for (int i = 0; i < results.size(); ++i) {
+				this.renderer.appendEvent(results.get(i)).appendText("\n");
+			}
+		} else if (name.equals("free")) {
+			ArrayList<UUID> userIDs = new ArrayList<UUID>();
+			userIDs.add(this.session.userID);
+			for (int i = 4; i < command.size(); ++i) {
+				userIDs.add(this.user(command.get(i)).userID);
+			}
+			Duration length = Duration.ofMinutes(Long.parseLong(argument(command, 3)));
+			ArrayList<TimeSlot> freeSlots = this.calendarManager.getFreeTimes(userIDs, this.time(command, 1),
+					this.time(command, 2), length);
+			for (int i = 0; i < freeSlots.size(); ++i) {
+				this.renderer.appendText(freeSlots.get(i).toString()).appendText("\n");
+			}
+		} else {
+			throw new Error("The command " + name + " is unknown");
+		}
+	}
+
+	private void addEvent(ArrayList<String> command) {
+		Calendar calendar = this.calendar(command, 1);
+		int repeatEnd = command.size() > 6 && !command.get(5).equals("as") ? 7 : 5;
+		RepeatConfig repeatConfig = repeatEnd == 7 ? this.repeatConfig(command, 5) : new RepeatConfig(false, null, null);
+		int[] viewers = new int[] { this.calendarManager.getUser(this.session.userID).handle };
+		Event event = new Event(argument(command, 2), calendar, viewers, this.time(command, 3), this.time(command, 4),
+				repeatConfig, null);
+		if (calendar != this.pendingCalendar || this.pendingEvents.size() >= BATCH_SIZE) {
+			this.flush();
+			this.pendingCalendar = calendar;
+		}
+		this.pendingEvents.add(event);
+		this.added("event", event.eventID, command, repeatEnd);
+	}
+
+	// adds the pending events to their calendar
+	private void flush() {
+		Calendar calendar = this.pendingCalendar;
+		this.pendingCalendar = null;
+		if (!this.pendingEvents.isEmpty()) {
+			// cleared first, so a failing batch isn't added again
+			ArrayList<Event> events = new ArrayList<Event>(this.pendingEvents);
+			this.pendingEvents.clear();
+			calendar.addEvents(events);
+		}
+	}
+
+	// reports the new ID and binds it to the label given with "as <label>"
+	private void added(String kind, UUID id, ArrayList<String> command, int labelIndex) {
+		if (command.size() > labelIndex) {
+			if (!command.get(labelIndex).equals("as") || command.size() != labelIndex + 2) {
+				throw new Error("The command has too many arguments");
+			}
+			this.labels.put(command.get(labelIndex + 1), id);
+		}
+		this.renderer.appendText("added " + kind + " " + id + "\n");
+	}
+
+	private UUID id(ArrayList<String> command, int index) {
+		String value = argument(command, index);
+		UUID id = this.labels.get(value);
+		return id != null ? id : UUID.fromString(value);
+	}
+
+	private Calendar calendar(ArrayList<String> command, int index) {
+		return this.calendarManager.getCalendar(this.id(command, index));
+	}
+
+	private Event event(ArrayList<String> command, int index) {
+		return this.calendarManager.getEvent(this.id(command, index));
+	}
+
+	private User user(String username) {
+		User user = this.calendarManager.usernameIndex.get(username);
+		if (user == null) {
+			throw new Error("The user " + username + " is not found");
+		}
+		return user;
+	}
+
+	private LocalDateTime time(ArrayList<String> command, int index) {
+		return this.calendarManager.toUTCTime(LocalDateTime.parse(argument(command, index)));
+	}
+
+	private RepeatConfig repeatConfig(ArrayList<String> command, int index) {
+		if (argument(command, index).equals("none")) {
+			return new RepeatConfig(false, null, null);
+		}
+		RepeatType frequency = RepeatType.valueOf(argument(command, index).toUpperCase());
+		return new RepeatConfig(true, this.time(command, index + 1), frequency);
+	}
+
+	private static String argument(ArrayList<String> command, int index) {
+		if (index >= command.size()) {
+			throw new Error("The command " + command.get(0) + " is missing arguments");
+		}
+		return command.get(index);
+	}
+
+	// splits the line at spaces outside double quotes; a backslash in quotes escapes the next character
+	static void tokenize(String line, ArrayList<String> tokens) {
+		StringBuilder token = new StringBuilder();
+		boolean inToken = false;
+		boolean quoted = false;
+		for (int i = 0; i < line.length(); ++i) {
+			char c = line.charAt(i);
+			if (quoted) {
+				if (c == '"') {
+					quoted = false;
+				} else if (c == '\\' && i + 1 < line.length()) {
+					token.append(line.charAt(++i));
+				} else {
+					token.append(c);
+				}
+			} else if (c == '"') {
+				quoted = true;
+				inToken = true;
+			} else if (Character.isWhitespace(c)) {
+				if (inToken) {
+					tokens.add(token.toString());
+					token.setLength(0);
+					inToken = false;
+				}
+			} else {
+				token.append(c);
+				inToken = true;
+			}
+		}
+		if (quoted) {
+			throw new Error("A quote isn't closed");
+		}
+		if (inToken) {
+			tokens.add(token.toString());
+		}
+	}
+
+}
@@ -0,0 +1,248 @@
+package calendar;
+
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.UUID;
+
+// times the calendar's hot paths against a generated data set and reports throughput, latency percentiles
+// and allocation per operation; run one data set size per JVM, e.g. java calendar.Benchmark 1000000 500
+public class Benchmark {
+
+	private static final long WARMUP_NANOS = 2000000000L;
+	private static final long MEASUREMENT_NANOS = 5000000000L;
+	private static final int MAX_SAMPLES = 1 << 20;
+	private static final String[] WORDS = { "team", "meeting", "lunch", "review", "sprint", "planning", "doctor",
+			"gym", "call", "standup", "dinner", "birthday", "release", "demo", "interview", "retro", "budget", "trip" };
+	private static final LocalDateTime START = LocalDateTime.of(2020, 1, 1, 0, 0);
+	private static final int DAYS = 4 * 365;
+
+	abstract static class Operation {
+
+		String name;
+
+		Operation(String name) {
+			this.name = name;
+		}
+
+		// untimed work done before each timed run
+		void prepare(int i) {
+		}
+
+		abstract void run(int i);
+
+	}
+
+	static PrintStream report;
+	static Random random;
+	static CalendarManager calendarManager;
+	static ArrayList<UUID> userIDs;
+	static ArrayList<UUID> eventIDs;
+	static int blackhole;
+
+	public static void main(String[] args) {
+		int eventCount = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+		int userCount = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+		report = System.out;
+		// the grouping views print every event, which would otherwise be timed against the terminal
+		System.setOut(new PrintStream(new OutputStream() {
+			public void write(int b) {
+			}
+
+			public void write(byte[] b, int off, int len) {
+			}
+		}));
+
+		long generationStart = System.nanoTime();
+		generate(eventCount, userCount);
+		Metrics.register(calendarManager);
+		report.println("Generated " + eventCount + " events for " + userCount + " users in "
+				+ (System.nanoTime() - generationStart) / 1000000 + " ms\n");
+		report.printf("%-34s %12s %10s %10s %10s %10s %10s %12s%n", "Benchmark", "ops/s", "p50 us", "p90 us",
+				"p99 us", "p99.9 us", "max us", "bytes/op");
+
+		ArrayList<Operation> operations = operations();
+		for (int i = 0; i < operations.size(); ++i) {
+			measure(operations.get(i));
+		}
+		if (Metrics.ENABLED) {
+			report.println();
+			Metrics.dump(calendarManager, new OutputStreamWriter(report));
+		}
+	}
+
+	static void generate(int eventCount, int userCount) {
+		random = new Random(42);
+		calendarManager = CalendarManager.getCalendarManager(0);
+		Main.calendarManager = calendarManager;
+		userIDs = new ArrayList<UUID>(userCount);
+		eventIDs = new ArrayList<UUID>(eventCount);
+		ArrayList<Calendar> calendars = new ArrayList<Calendar>();
+		for (int i = 0; i < userCount; ++i) {
+			UUID userID = calendarManager.login("user" + i).userID;
+			userIDs.add(userID);
+			for (int j = 0; j < 2; ++j) {
+				Calendar calendar = new Calendar("calendar " + i + "-" + j, userID);
+				calendarManager.addCalendar(calendar);
+				if (random.nextInt(10) == 0) {
+					calendar.setAccessibility(true);
+				}
+				calendars.add(calendar);
+			}
+		}
+		for (int i = 0; i < eventCount; ++i) {
+			Calendar calendar = calendars.get(random.nextInt(calendars.size()));
+			ArrayList<UUID> viewers = new ArrayList<UUID>();
+			viewers.add(calendar.owner);
+			if (random.nextInt(20) == 0) {
+				viewers.add(userIDs.get(random.nextInt(userCount)));
+			}
+			LocalDateTime startTime = START.plusDays(random.nextInt(DAYS)).plusMinutes(15 * random.nextInt(96));
+			LocalDateTime endTime = startTime.plusMinutes(15 * (1 + random.nextInt(8)));
+			RepeatConfig repeatConfig = new RepeatConfig(false, null, null);
+			if (random.nextInt(100) == 0) {
+				repeatConfig = new RepeatConfig(true, startTime.plusDays(90), RepeatType.WEEKLY);
+			}
+			Event event = new Event(title(), calendar.calendarID, viewers, startTime, endTime, repeatConfig, null);
+			calendarManager.addEvent(event, calendar.calendarID);
+			eventIDs.add(event.eventID);
+		}
+	}
+
+	static ArrayList<Operation> operations() {
+		ArrayList<Operation> operations = new ArrayList<Operation>();
+		operations.add(new Operation("getEvents (week)") {
+			void run(int i) {
+				LocalDateTime from = START.plusDays(random.nextInt(DAYS));
+				blackhole += calendarManager.getEvents(user(), true, from, from.plusWeeks(1)).size();
+			}
+		});
+		operations.add(new Operation("getEvents (year)") {
+			void run(int i) {
+				LocalDateTime from = START.plusDays(random.nextInt(DAYS - 365));
+				blackhole += calendarManager.getEvents(user(), true, from, from.plusYears(1)).size();
+			}
+		});
+		operations.add(new Operation("getEventPage (year, 50)") {
+			void run(int i) {
+				LocalDateTime from = START.plusDays(random.nextInt(DAYS - 365));
+				blackhole += calendarManager.getEventPage(user(), true, from, from.plusYears(1), null, 50).items.size();
+			}
+		});
+		operations.add(new Operation("searchEvent (word)") {
+			void run(int i) {
+				blackhole += calendarManager.searchEvent(user(), WORDS[random.nextInt(WORDS.length)]).size();
+			}
+		});
+		operations.add(new Operation("searchEvent (word and prefix)") {
+			void run(int i) {
+				String query = WORDS[random.nextInt(WORDS.length)] + " " + WORDS[random.nextInt(WORDS.length)].substring(0, 2);
+				blackhole += calendarManager.searchEvent(user(), query).size();
+			}
+		});
+		operations.add(new Operation("getEvent") {
+			void run(int i) {
+				blackhole += calendarManager.getEvent(eventIDs.get(random.nextInt(eventIDs.size()))).title.length();
+			}
+		});
+		operations.add(new Operation("setTimeZone") {
+			void run(int i) {
+				calendarManager.setTimeZone(i % 24 - 11);
+			}
+		});
+		operations.add(new Operation("repeatEvent (10 year DAILY)") {
+			void run(int i) {
+				Event series = new Event("series", calendarManager.calendarList.get(0).calendarID, new ArrayList<UUID>(),
+						START, START.plusHours(1), new RepeatConfig(true, START.plusYears(10), RepeatType.DAILY), null);
+				blackhole += series.getOccurrences(null, null).size();
+			}
+		});
+		operations.add(new Operation("removeEvent (DAILY series)") {
+			Calendar calendar;
+			Event series;
+
+			void prepare(int i) {
+				this.calendar = calendarManager.getCalendar(calendarManager.calendarList.get(0).calendarID);
+				this.series = new Event("series", this.calendar.calendarID, new ArrayList<UUID>(), START, START.plusHours(1),
+						new RepeatConfig(true, START.plusYears(1), RepeatType.DAILY), null);
+				this.calendar.addEvent(this.series);
+				// a few edited occurrences are stored events the removal has to take along
+				for (int j = 0; j < 5; ++j) {
+					this.series.getOccurrence(1 + j * 30).setEventTitle("edited");
+				}
+			}
+
+			void run(int i) {
+				this.calendar.removeEvent(this.series.eventID);
+			}
+		});
+		Main.session = new Session(userIDs.get(0));
+		Main.renderer = Renderer.standardOutput();
+		operations.add(printOperation("printEventsByPeriod (day)", ViewPeriod.DAY));
+		operations.add(printOperation("printEventsByPeriod (week)", ViewPeriod.WEEK));
+		operations.add(printOperation("printEventsByPeriod (month)", ViewPeriod.MONTH));
+		operations.add(printOperation("printEventsByPeriod (year)", ViewPeriod.YEAR));
+		return operations;
+	}
+
+	static Operation printOperation(String name, final ViewPeriod period) {
+		return new Operation(name) {
+			void run(int i) {
+				Main.printEventsByPeriod(true, period);
+			}
+		};
+	}
+
+	static void measure(Operation operation) {
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		long threadID = Thread.currentThread().getId();
+		int i = 0;
+		for (long deadline = System.nanoTime() + WARMUP_NANOS; System.nanoTime() < deadline; ++i) {
+			operation.prepare(i);
+			operation.run(i);
+		}
+
+		long[] samples = new long[MAX_SAMPLES];
+		int count = 0;
+		long totalNanos = 0;
+		long allocatedBytes = 0;
+		while (totalNanos < MEASUREMENT_NANOS && count < MAX_SAMPLES) {
+			operation.prepare(i);
+			long allocatedBefore = threads.getThreadAllocatedBytes(threadID);
+			long start = System.nanoTime();
+			operation.run(i++);
+			long elapsed = System.nanoTime() - start;
+			allocatedBytes += threads.getThreadAllocatedBytes(threadID) - allocatedBefore;
+			samples[count++] = elapsed;
+			totalNanos += elapsed;
+		}
+
+		Arrays.sort(samples, 0, count);
+		report.printf("%-34s %12.1f %10.1f %10.1f %10.1f %10.1f %10.1f %12d%n", operation.name,
+				count * 1e9 / totalNanos, percentile(samples, count, 0.5), percentile(samples, count, 0.9),
+				percentile(samples, count, 0.99), percentile(samples, count, 0.999), samples[count - 1] / 1e3,
+				allocatedBytes / count);
+	}
+
+	static double percentile(long[] samples, int count, double percentile) {
+		return samples[Math.min(count - 1, (int) (percentile * count))] / 1e3;
+	}
+
+	static UUID user() {
+		return userIDs.get(random.nextInt(userIDs.size()));
+	}
+
+	static String title() {
+		String title = WORDS[random.nextInt(WORDS.length)];
+		for (int words = random.nextInt(3); words > 0; --words) {
+			title += " " + WORDS[random.nextInt(WORDS.length)];
+		}
+		return title;
+	}
+
+}
@@ -1,14 +1,40 @@
 package calendar;
 
+import java.io.File;
+import java.time.Duration;
+import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.NavigableMap;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
 import java.util.UUID;
+import java.util.concurrent.locks.Lock;
 
 class Calendar {
 
+	// orders the events in progress during a sweep so the first to end comes first
+	private static final Comparator<Event> END_TIME_ORDER = new Comparator<Event>() {
+		public int compare(Event event, Event otherEvent) {
+			return event.endTime.compareTo(otherEvent.endTime);
+		}
+	};
+
 	UUID calendarID;
 	String name;
 	UUID owner;
 	ArrayList<Event> eventList;
+	HashMap<UUID, Event> eventIndex;
+	TreeMap<LocalDateTime, ArrayList<Event>> timeline;
+	ArrayList<Event> seriesList;
+	// the longest of the events on the timeline, and how many of them last each duration so it shrinks as they go
+	Duration longestEvent;
+	TreeMap<Duration, Integer> durations;
+	EventArchive archive;
 	Boolean isPublic;
 	Boolean isVisible;
 
@@ -19,53 +45,483 @@ class Calendar {
 		this.isPublic = false;
 		this.isVisible = true;
 		this.eventList = new ArrayList<Event>();
+		this.eventIndex = new HashMap<UUID, Event>();
+		this.timeline = new TreeMap<LocalDateTime, ArrayList<Event>>();
+		this.seriesList = new ArrayList<Event>();
+		this.longestEvent = Duration.ZERO;
+		this.durations = new TreeMap<Duration, Integer>();
 	}
 
 	void setCalendarName(String name) {
-		this.name = name;
+		Lock lock = CalendarManager.getCalendarManager().writeLock();
+		lock.lock();
+		try {
+			this.name = name;
+			CalendarManager.getCalendarManager().journal.log(Journal.SET_CALENDAR_NAME, this.calendarID, name);
+		} finally {
+			lock.unlock();
+		}
 	}
 
 	void setAccessibility(Boolean isPublic) {
-		this.isPublic = isPublic;
+		CalendarManager calendarManager = CalendarManager.getCalendarManager();
+		Lock lock = calendarManager.writeLock();
+		lock.lock();
+		try {
+			this.isPublic = isPublic;
+			calendarManager.updateAccessibility(this);
+			calendarManager.journal.log(Journal.SET_ACCESSIBILITY, this.calendarID, isPublic);
+		} finally {
+			lock.unlock();
+		}
 	}
 
 	void setVisibility(Boolean isVisible) {
-		this.isVisible = isVisible;
+		Lock lock = CalendarManager.getCalendarManager().writeLock();
+		lock.lock();
+		try {
+			this.isVisible = isVisible;
+			CalendarManager.getCalendarManager().journal.log(Journal.SET_VISIBILITY, this.calendarID, isVisible);
+		} finally {
+			lock.unlock();
+		}
 	}
 
 	void addEvent(Event event) {
-		this.eventList.add(event);
+		Lock lock = CalendarManager.getCalendarManager().writeLock();
+		lock.lock();
+		try {
+			this.eventList.add(event);
+			this.eventIndex.put(event.eventID, event);
+			this.scheduleEvent(event);
+			CalendarManager.getCalendarManager().indexEvent(event);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	// adds a batch of new events under one lock, logging each so a replay adds them one by one
+	void addEvents(ArrayList<Event> events) {
+		CalendarManager calendarManager = CalendarManager.getCalendarManager();
+		Lock lock = calendarManager.writeLock();
+		lock.lock();
+		try {
+			this.eventList.ensureCapacity(this.eventList.size() + events.size());
+			for (int i = 0; i < events.size(); ++i) {
+				Event event = events.get(i);
+				this.eventList.add(event);
+				this.eventIndex.put(event.eventID, event);
+				this.scheduleEvent(event);
+				calendarManager.indexEvent(event);
+				calendarManager.journal.log(Journal.ADD_EVENT, event);
+			}
+		} finally {
+			lock.unlock();
+		}
 	}
 
 	void removeEvent(UUID eventID) {
-		Event removedEvent = this.getEvent(eventID);
-		this.eventList.remove(removedEvent);
-		if (removedEvent.originalEvent != null) {
-			this.getEvent(removedEvent.originalEvent).repeatingEvents.remove(removedEvent.eventID);
+		Lock lock = CalendarManager.getCalendarManager().writeLock();
+		lock.lock();
+		try {
+			Event removedEvent = this.getEvent(eventID);
+			if (removedEvent.archiveRow >= 0) {
+				this.archive.removedRows.set(removedEvent.archiveRow);
+				return;
+			}
+			if (removedEvent.originalEvent != null) {
+				Event series = this.getEvent(removedEvent.originalEvent);
+				series.editedOccurrences.remove(removedEvent.occurrenceIndex);
+				series.skippedOccurrences.add(removedEvent.occurrenceIndex);
+				if (!this.eventIndex.containsKey(eventID)) {
+					return;
+				}
+			}
+
+			HashSet<UUID> removedEvents = new HashSet<UUID>();
+			removedEvents.add(eventID);
+			if (removedEvent.repeatConfig.repeatable) {
+				for (int i = 0; i < removedEvent.editedOccurrences.size(); ++i) {
+					removedEvents.add(removedEvent.occurrenceID(removedEvent.editedOccurrences.get(i)));
+				}
+			}
+			this.removeEvents(removedEvents);
+		} finally {
+			lock.unlock();
 		}
-		if (removedEvent.repeatConfig.repeatable) {
-			for (int i = 0; i < removedEvent.repeatingEvents.size(); ++i) {
-				Event event = this.getEvent(removedEvent.repeatingEvents.get(i));
-				this.eventList.remove(event);
+	}
+
+	// removes the given events in a single pass over eventList, without touching series links
+	void removeEvents(HashSet<UUID> eventIDs) {
+		CalendarManager calendarManager = CalendarManager.getCalendarManager();
+		ArrayList<Event> remainingEvents = new ArrayList<Event>(this.eventList.size());
+		for (int i = 0; i < this.eventList.size(); ++i) {
+			Event event = this.eventList.get(i);
+			if (eventIDs.contains(event.eventID)) {
+				this.unscheduleEvent(event);
+				this.eventIndex.remove(event.eventID);
+				calendarManager.unindexEvent(event);
+			} else {
+				remainingEvents.add(event);
 			}
 		}
+		this.eventList = remainingEvents;
 	}
 
 	Event getEvent(UUID eventID) {
-		for (int i = 0; i < this.eventList.size(); ++i) {
-			if (this.eventList.get(i).eventID.equals(eventID)) {
-				return this.eventList.get(i);
+		Lock lock = CalendarManager.getCalendarManager().readLock();
+		lock.lock();
+		try {
+			Event event = this.eventIndex.get(eventID);
+			if (event == null) {
+				event = CalendarManager.getCalendarManager().getOccurrence(eventID);
+			}
+			if (event == null && this.archive != null) {
+				event = this.archive.getEvent(this, eventID);
+			}
+			if (event == null || event.calendar != this) {
+				throw new Error("The event is not found");
+			}
+			return event;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	// returns the events and occurrences overlapping [from, to), null meaning unbounded
+	ArrayList<Event> getEvents(LocalDateTime from, LocalDateTime to) {
+		long startNanos = Metrics.start();
+		Lock lock = CalendarManager.getCalendarManager().readLock();
+		lock.lock();
+		try {
+			ArrayList<Event> events = new ArrayList<Event>();
+			this.addStoredEvents(events, from, to, null, null);
+			this.addOccurrences(events, from, to, 0, this.seriesList.size());
+			if (this.archive != null) {
+				events.addAll(this.archive.getEvents(this, from, to));
 			}
+			return events;
+		} finally {
+			lock.unlock();
+			Metrics.record(Metrics.Operation.CALENDAR_GET_EVENTS, startNanos);
+		}
+	}
+
+	// adds the stored events starting in [startFrom, startTo) that overlap [from, to), null meaning unbounded;
+	// the caller holds the read lock
+	void addStoredEvents(ArrayList<Event> events, LocalDateTime from, LocalDateTime to, LocalDateTime startFrom,
+			LocalDateTime startTo) {
+		NavigableMap<LocalDateTime, ArrayList<Event>> window = this.timeline;
+		// events starting before the window can only overlap it if they last long enough
+		LocalDateTime windowStart = from == null ? null : from.minus(this.longestEvent);
+		if (startFrom != null && (windowStart == null || startFrom.isAfter(windowStart))) {
+			windowStart = startFrom;
+		}
+		LocalDateTime windowEnd = to;
+		if (startTo != null && (windowEnd == null || startTo.isBefore(windowEnd))) {
+			windowEnd = startTo;
+		}
+		if (windowStart != null) {
+			window = window.tailMap(windowStart, true);
+		}
+		if (windowEnd != null) {
+			window = window.headMap(windowEnd, false);
+		}
+		for (ArrayList<Event> startingEvents : window.values()) {
+			for (int i = 0; i < startingEvents.size(); ++i) {
+				Event event = startingEvents.get(i);
+				if (from == null || !event.endTime.isBefore(from)) {
+					events.add(event);
+				}
+			}
+		}
+	}
+
+	// adds the occurrences overlapping [from, to) of the series in seriesList[seriesStart, seriesEnd); the caller
+	// holds the read lock
+	void addOccurrences(ArrayList<Event> events, LocalDateTime from, LocalDateTime to, int seriesStart, int seriesEnd) {
+		for (int i = seriesStart; i < seriesEnd; ++i) {
+			events.addAll(this.seriesList.get(i).getOccurrences(from, to));
+		}
+	}
+
+	// returns the events and occurrences starting in the local day, week, month or year, sorted by start time
+	ArrayList<Event> getEvents(ViewPeriod period, long key) {
+		CalendarManager calendarManager = CalendarManager.getCalendarManager();
+		Lock lock = calendarManager.readLock();
+		lock.lock();
+		try {
+			LocalDateTime from = calendarManager.toUTCTime(period.start(key));
+			LocalDateTime to = calendarManager.toUTCTime(period.end(key));
+			// the period's stored events are a range of the UTC timeline, whatever the time zone
+			ArrayList<Event> events = new ArrayList<Event>();
+			for (ArrayList<Event> startingEvents : this.timeline.subMap(from, true, to, false).values()) {
+				events.addAll(startingEvents);
+			}
+			int storedEvents = events.size();
+			for (int i = 0; i < this.seriesList.size(); ++i) {
+				addStartingEvents(events, this.seriesList.get(i).getOccurrences(from, to), from);
+			}
+			if (this.archive != null) {
+				addStartingEvents(events, this.archive.getEvents(this, from, to), from);
+			}
+			if (events.size() > storedEvents) {
+				Collections.sort(events);
+			}
+			return events;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	// returns the first period after the given one in which an event starts, null meaning from the start;
+	// returns null if there's none
+	Long nextPeriod(ViewPeriod period, Long key) {
+		CalendarManager calendarManager = CalendarManager.getCalendarManager();
+		Lock lock = calendarManager.readLock();
+		lock.lock();
+		try {
+			LocalDateTime from = key == null ? null : calendarManager.toUTCTime(period.end(key));
+			LocalDateTime nextStartTime = from == null ? (this.timeline.isEmpty() ? null : this.timeline.firstKey())
+					: this.timeline.ceilingKey(from);
+			Long nextKey = earlierPeriod(period, null, nextStartTime);
+			for (int i = 0; i < this.seriesList.size(); ++i) {
+				nextKey = earlierPeriod(period, nextKey, this.seriesList.get(i).nextOccurrenceTime(from));
+			}
+			if (this.archive != null) {
+				nextKey = earlierPeriod(period, nextKey, this.archive.nextStartTime(from));
+			}
+			return nextKey;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	static void addStartingEvents(ArrayList<Event> events, ArrayList<Event> overlappingEvents, LocalDateTime from) {
+		for (int i = 0; i < overlappingEvents.size(); ++i) {
+			Event event = overlappingEvents.get(i);
+			if (!event.startTime.isBefore(from)) {
+				events.add(event);
+			}
+		}
+	}
+
+	// the earlier of a period and the one the start time falls in, null meaning none
+	static Long earlierPeriod(ViewPeriod period, Long key, LocalDateTime startTime) {
+		if (startTime == null) {
+			return key;
+		}
+		long startKey = period.key(CalendarManager.getCalendarManager().toLocalTime(startTime).toLocalDate());
+		return key == null || startKey < key ? startKey : key;
+	}
+
+	// returns the events and occurrences overlapping any occurrence of the given event, leaving out the ignored
+	// event and the event's own series; the calendar is read once over the occurrences' span and swept along
+	// with them, rather than looked up again for every occurrence
+	ArrayList<Event> findConflicts(Event event, Event ignoredEvent) {
+		LinkedHashMap<UUID, Event> conflicts = new LinkedHashMap<UUID, Event>();
+		Lock lock = CalendarManager.getCalendarManager().readLock();
+		lock.lock();
+		try {
+			ArrayList<Event> occurrences = event.getOccurrences(null, null);
+			if (occurrences.isEmpty()) {
+				return new ArrayList<Event>();
+			}
+			Collections.sort(occurrences);
+			LocalDateTime to = occurrences.get(0).endTime;
+			for (int i = 1; i < occurrences.size(); ++i) {
+				if (occurrences.get(i).endTime.isAfter(to)) {
+					to = occurrences.get(i).endTime;
+				}
+			}
+			ArrayList<Event> events = this.getEvents(occurrences.get(0).startTime, to);
+			Collections.sort(events);
+
+			// sweeps both lists by start time, checking each occurrence or event against the ones of the other
+			// list still in progress
+			PriorityQueue<Event> activeOccurrences = new PriorityQueue<Event>(11, END_TIME_ORDER);
+			PriorityQueue<Event> activeEvents = new PriorityQueue<Event>(11, END_TIME_ORDER);
+			int i = 0;
+			int j = 0;
+			while (i < occurrences.size() || j < events.size()) {
+				if (j == events.size() || i < occurrences.size()
+						&& !occurrences.get(i).startTime.isAfter(events.get(j).startTime)) {
+					Event occurrence = occurrences.get(i++);
+					while (!activeEvents.isEmpty() && !activeEvents.peek().endTime.isAfter(occurrence.startTime)) {
+						activeEvents.poll();
+					}
+					for (Event otherEvent : activeEvents) {
+						if (overlaps(occurrence, otherEvent)) {
+							conflicts.put(otherEvent.eventID, otherEvent);
+						}
+					}
+					activeOccurrences.add(occurrence);
+				} else {
+					Event otherEvent = events.get(j++);
+					if (isSameSeries(otherEvent, event) || ignoredEvent != null && isSameSeries(otherEvent, ignoredEvent)) {
+						continue;
+					}
+					while (!activeOccurrences.isEmpty()
+							&& !activeOccurrences.peek().endTime.isAfter(otherEvent.startTime)) {
+						activeOccurrences.poll();
+					}
+					for (Event occurrence : activeOccurrences) {
+						if (overlaps(occurrence, otherEvent)) {
+							conflicts.put(otherEvent.eventID, otherEvent);
+							break;
+						}
+					}
+					activeEvents.add(otherEvent);
+				}
+			}
+		} finally {
+			lock.unlock();
+		}
+		return new ArrayList<Event>(conflicts.values());
+	}
+
+	// returns every pair of overlapping events and occurrences within [from, to), null meaning unbounded
+	ArrayList<Conflict> findAllConflicts(LocalDateTime from, LocalDateTime to) {
+		ArrayList<Event> events = this.getEvents(from, to);
+		Collections.sort(events);
+		ArrayList<Conflict> conflicts = new ArrayList<Conflict>();
+		// sweeps the events by start time, keeping the ones still in progress ordered by end time
+		PriorityQueue<Event> activeEvents = new PriorityQueue<Event>(11, END_TIME_ORDER);
+		for (int i = 0; i < events.size(); ++i) {
+			Event event = events.get(i);
+			while (!activeEvents.isEmpty() && !activeEvents.peek().endTime.isAfter(event.startTime)) {
+				activeEvents.poll();
+			}
+			for (Event activeEvent : activeEvents) {
+				if (overlaps(activeEvent, event)) {
+					conflicts.add(new Conflict(activeEvent, event));
+				}
+			}
+			activeEvents.add(event);
+		}
+		return conflicts;
+	}
+
+	// events touching end to start don't overlap
+	private static boolean overlaps(Event event, Event otherEvent) {
+		return event.startTime.isBefore(otherEvent.endTime) && otherEvent.startTime.isBefore(event.endTime);
+	}
+
+	// a series, its occurrences and the occurrences edited on their own all keep the series ID's high bits
+	private static boolean isSameSeries(Event event, Event otherEvent) {
+		return event.eventID.getMostSignificantBits() == otherEvent.eventID.getMostSignificantBits();
+	}
+
+	// moves the single events that ended before the given time and aren't shared into a memory-mapped archive
+	int archiveEvents(LocalDateTime before) {
+		return this.archiveEvents(before, null);
+	}
+
+	// a replayed journal reopens the archive generation written the first time if it's still there
+	int archiveEvents(LocalDateTime before, String archiveName) {
+		Lock lock = CalendarManager.getCalendarManager().writeLock();
+		lock.lock();
+		try {
+			ArrayList<Event> archivedEvents = new ArrayList<Event>();
+			HashSet<UUID> archivedIDs = new HashSet<UUID>();
+			for (ArrayList<Event> startingEvents : this.timeline.headMap(before, false).values()) {
+				for (int i = 0; i < startingEvents.size(); ++i) {
+					Event event = startingEvents.get(i);
+					if (event.originalEvent == null && event.endTime.isBefore(before) && this.isPrivateEvent(event)) {
+						archivedEvents.add(event);
+						archivedIDs.add(event.eventID);
+					}
+				}
+			}
+			if (archivedEvents.isEmpty()) {
+				return 0;
+			}
+
+			CalendarManager calendarManager = CalendarManager.getCalendarManager();
+			EventArchive previousArchive = this.archive;
+			File archiveDirectory = archiveName == null ? null : new File(calendarManager.getArchiveDirectory(), archiveName);
+			if (archiveDirectory != null && archiveDirectory.isDirectory()) {
+				this.archive = EventArchive.open(archiveDirectory);
+			} else {
+				this.archive = EventArchive.build(calendarManager.getArchiveDirectory(), previousArchive, archivedEvents);
+			}
+			this.removeEvents(archivedIDs);
+			// with a journal, the previous generation stays until a snapshot no longer needs it
+			if (previousArchive != null && calendarManager.journal.directory == null) {
+				EventArchive.delete(previousArchive.directory);
+			}
+			calendarManager.journal.log(Journal.ARCHIVE_EVENTS, this.calendarID, before, this.archive.directory.getName());
+			return archivedEvents.size();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	// an archived event that changes is moved back into the calendar
+	void restoreEvent(Event event) {
+		this.archive.removedRows.set(event.archiveRow);
+		event.archiveRow = -1;
+		this.addEvent(event);
+	}
+
+	private boolean isPrivateEvent(Event event) {
+		int owner = CalendarManager.getCalendarManager().getUser(this.owner).handle;
+		for (int i = 0; i < event.viewers.length; ++i) {
+			if (event.viewers[i] != owner) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	// keeps the timeline in step with a stored event; call unscheduleEvent before changing its times
+	void scheduleEvent(Event event) {
+		if (this.eventIndex.get(event.eventID) != event) {
+			return;
+		}
+		if (event.repeatConfig.repeatable) {
+			this.seriesList.add(event);
+			return;
+		}
+		ArrayList<Event> startingEvents = this.timeline.get(event.startTime);
+		if (startingEvents == null) {
+			startingEvents = new ArrayList<Event>();
+			this.timeline.put(event.startTime, startingEvents);
+		}
+		startingEvents.add(event);
+		Duration duration = Duration.between(event.startTime, event.endTime);
+		Integer count = this.durations.get(duration);
+		this.durations.put(duration, count == null ? 1 : count + 1);
+		if (duration.compareTo(this.longestEvent) > 0) {
+			this.longestEvent = duration;
+		}
+	}
+
+	void unscheduleEvent(Event event) {
+		if (this.eventIndex.get(event.eventID) != event) {
+			return;
+		}
+		if (event.repeatConfig.repeatable) {
+			this.seriesList.remove(event);
+			return;
+		}
+		ArrayList<Event> startingEvents = this.timeline.get(event.startTime);
+		startingEvents.remove(event);
+		if (startingEvents.isEmpty()) {
+			this.timeline.remove(event.startTime);
+		}
+		Duration duration = Duration.between(event.startTime, event.endTime);
+		Integer count = this.durations.get(duration);
+		if (count > 1) {
+			this.durations.put(duration, count - 1);
+		} else {
+			this.durations.remove(duration);
+			this.longestEvent = this.durations.isEmpty() ? Duration.ZERO : this.durations.lastKey();
 		}
-		throw new Error("The event is not found");
 	}
 
 	public String toString() {
-		return (this.isPublic ? "Public" : "Private") + " calendar" + "\n"
-				+ "Calendar ID: " + this.calendarID + "\n"
-				+ "Calendar Name: " + this.name + "\n"
-				+ "Calendar Creator: " + CalendarManager.getCalendarManager().getUser(owner).username + "\n"
-				+ "Calendar Visibility: " + (this.isVisible ? "visible" : "hidden");
+		return Renderer.render(this);
 	}
 
 }
@@ -1,25 +1,114 @@
 package calendar;
 
+import java.io.File;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.PriorityQueue;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
+// readers share the lock and writers hold it exclusively, so a change to an event, its series and every index
+// is seen as a whole; lookups by ID go straight to the concurrent maps
 class CalendarManager {
 
-	UUID currentUser;
+	// the orders calendars and timers are paged in
+	private static final Comparator<Calendar> CALENDAR_ORDER = new Comparator<Calendar>() {
+		public int compare(Calendar first, Calendar second) {
+			return first.calendarID.compareTo(second.calendarID);
+		}
+	};
+	private static final Comparator<CountdownTimer> TIMER_ORDER = new Comparator<CountdownTimer>() {
+		public int compare(CountdownTimer first, CountdownTimer second) {
+			int order = first.endTime.compareTo(second.endTime);
+			return order != 0 ? order : first.timerID.compareTo(second.timerID);
+		}
+	};
+
 	CalendarTheme theme;
 	int timezone;
 
 	ArrayList<Calendar> calendarList;
-	ArrayList<CountdownTimer> timerList;
+	// a removed user leaves a null behind, so the handles of the others stay as they are
 	ArrayList<User> userList;
 
-	private static CalendarManager calendarManager;
+	ConcurrentHashMap<UUID, Calendar> calendarIndex;
+	ConcurrentHashMap<UUID, Event> eventIndex;
+	ConcurrentHashMap<UUID, CountdownTimer> timerIndex;
+	ConcurrentHashMap<UUID, User> userIndex;
+	ConcurrentHashMap<String, User> usernameIndex;
+	HashMap<Long, Event> seriesIndex;
+	SearchIndex searchIndex;
+	VisibilityIndex visibilityIndex;
+	ReferenceIndex referenceIndex;
+	Journal journal;
+	TimerWheel timerWheel;
+
+	final ReentrantReadWriteLock lock;
+	private final Lock writeLock;
+
+	// the write lock, which once released by its outermost holder waits until the changes journaled under it are
+	// durable, so writers wait for the disk without holding up anyone else
+	private class DurableWriteLock implements Lock {
+
+		public void lock() {
+			CalendarManager.this.lock.writeLock().lock();
+		}
+
+		public void lockInterruptibly() throws InterruptedException {
+			CalendarManager.this.lock.writeLock().lockInterruptibly();
+		}
+
+		public boolean tryLock() {
+			return CalendarManager.this.lock.writeLock().tryLock();
+		}
+
+		public boolean tryLock(long time, TimeUnit unit) throws InterruptedException {
+			return CalendarManager.this.lock.writeLock().tryLock(time, unit);
+		}
+
+		public void unlock() {
+			CalendarManager.this.lock.writeLock().unlock();
+			if (!CalendarManager.this.lock.isWriteLockedByCurrentThread()) {
+				CalendarManager.this.journal.awaitDurable();
+			}
+		}
+
+		public Condition newCondition() {
+			return CalendarManager.this.lock.writeLock().newCondition();
+		}
+
+	}
+
+	private static volatile CalendarManager calendarManager;
 
 	private CalendarManager(int timezone) {
 		this.calendarList = new ArrayList<Calendar>();
-		this.timerList = new ArrayList<CountdownTimer>();
 		this.userList = new ArrayList<User>();
-		this.currentUser = null;
+		this.calendarIndex = new ConcurrentHashMap<UUID, Calendar>();
+		this.eventIndex = new ConcurrentHashMap<UUID, Event>();
+		this.timerIndex = new ConcurrentHashMap<UUID, CountdownTimer>();
+		this.userIndex = new ConcurrentHashMap<UUID, User>();
+		this.usernameIndex = new ConcurrentHashMap<String, User>();
+		this.seriesIndex = new HashMap<Long, Event>();
+		this.searchIndex = new SearchIndex();
+		this.visibilityIndex = new VisibilityIndex();
+		this.referenceIndex = new ReferenceIndex();
+		this.journal = new Journal();
+		this.timerWheel = new TimerWheel();
+		this.lock = new ReentrantReadWriteLock();
+		this.writeLock = new DurableWriteLock();
 		this.theme = CalendarTheme.LIGHT;
 		this.timezone = timezone;
 	}
@@ -33,168 +122,879 @@ class CalendarManager {
 
 	public static CalendarManager getCalendarManager(int timezone) {
 		if (calendarManager == null) {
-			calendarManager = new CalendarManager(timezone);
+			synchronized (CalendarManager.class) {
+				if (calendarManager == null) {
+					calendarManager = new CalendarManager(timezone);
+				}
+			}
 		}
 		return calendarManager;
 	}
 
+	Lock readLock() {
+		return this.lock.readLock();
+	}
+
+	Lock writeLock() {
+		return this.writeLock;
+	}
+
 	void setTheme(CalendarTheme theme) {
-		this.theme = theme;
+		Lock lock = this.writeLock();
+		lock.lock();
+		try {
+			this.theme = theme;
+			this.journal.log(Journal.SET_THEME, theme);
+		} finally {
+			lock.unlock();
+		}
 	}
 
 	String getTheme() {
 		return this.theme == CalendarTheme.LIGHT ? "Light Theme" : "Dark Theme";
 	}
 
+	// events and timers are stored in UTC, so switching zones only changes how times are shown and read
 	void setTimeZone(int timezone) {
-		int timeDiff = timezone - this.timezone;
-		this.timezone = timezone;
-		for (int i = 0; i < calendarList.size(); ++i) {
-			ArrayList<Event> events = calendarList.get(i).eventList;
-			for (int j = 0; j < events.size(); ++j) {
-				Event event = events.get(j);
-				event.updateTimeByTimeZone(timeDiff);
-			}
+		Lock lock = this.writeLock();
+		lock.lock();
+		try {
+			this.timezone = timezone;
+			this.journal.log(Journal.SET_TIME_ZONE, timezone);
+		} finally {
+			lock.unlock();
 		}
 	}
 
-	void login(String username) {
-		for (int i = 0; i < userList.size(); ++i) {
-			User user = userList.get(i);
-			if (user.username.equals(username)) {
-				this.currentUser = user.userID;
-				return;
+	LocalDateTime toLocalTime(LocalDateTime time) {
+		return time == null ? null : time.plusHours(this.timezone);
+	}
+
+	LocalDateTime toUTCTime(LocalDateTime time) {
+		return time == null ? null : time.minusHours(this.timezone);
+	}
+
+	// a new name is looked up again under the write lock before the user is created, so concurrent logins with
+	// it create one user
+	Session login(String username) {
+		long startNanos = Metrics.start();
+		// existing users are found without taking the lock
+		User user = this.usernameIndex.get(username);
+		if (user != null) {
+			Metrics.record(Metrics.Operation.LOGIN, startNanos);
+			return new Session(user.userID);
+		}
+		Lock lock = this.writeLock();
+		lock.lock();
+		try {
+			user = this.usernameIndex.get(username);
+			if (user == null) {
+				user = new User(username);
+				this.addUser(user);
 			}
+		} finally {
+			lock.unlock();
 		}
-		User newUser = new User(username);
-		this.addUser(newUser);
-		this.currentUser = newUser.userID;
+		Metrics.record(Metrics.Operation.LOGIN, startNanos);
+		return new Session(user.userID);
 	}
 
 	void addUser(User user) {
-		userList.add(user);
+		Lock lock = this.writeLock();
+		lock.lock();
+		try {
+			user.handle = this.userList.size();
+			this.userList.add(user);
+			this.userIndex.put(user.userID, user);
+			this.usernameIndex.put(user.username, user);
+			this.journal.log(Journal.ADD_USER, user);
+		} finally {
+			lock.unlock();
+		}
 	}
 
-	User getUser(UUID userID) {
-		for (int i = 0; i < this.userList.size(); ++i) {
-			User user = this.userList.get(i);
-			if (user.userID.equals(userID)) {
-				return user;
+	ArrayList<User> getUsers() {
+		Lock lock = this.readLock();
+		lock.lock();
+		try {
+			ArrayList<User> users = new ArrayList<User>(this.userList.size());
+			for (int i = 0; i < this.userList.size(); ++i) {
+				if (this.userList.get(i) != null) {
+					users.add(this.userList.get(i));
+				}
 			}
+			return users;
+		} finally {
+			lock.unlock();
 		}
-		throw new Error("The user is not found");
+	}
+
+	// removes the user with their calendars and timers, and takes them off the events shared with them, in time
+	// proportional to those; their handle isn't given to anyone else
+	void removeUser(UUID userID) {
+		Lock lock = this.writeLock();
+		lock.lock();
+		try {
+			User removedUser = this.getUser(userID);
+			LinkedHashSet<Calendar> owned = this.visibilityIndex.ownedCalendars.get(userID);
+			if (owned != null) {
+				ArrayList<Calendar> removedCalendars = new ArrayList<Calendar>(owned);
+				for (int i = 0; i < removedCalendars.size(); ++i) {
+					this.dropCalendar(removedCalendars.get(i));
+				}
+				this.visibilityIndex.ownedCalendars.remove(userID);
+			}
+			LinkedHashSet<Event> shared = this.visibilityIndex.sharedEvents.remove(userID);
+			if (shared != null) {
+				for (Event event : shared) {
+					event.unshare(removedUser.handle);
+				}
+			}
+			this.dropTimers(this.referenceIndex.getTimers(userID));
+			this.userList.set(removedUser.handle, null);
+			this.userIndex.remove(userID);
+			this.usernameIndex.remove(removedUser.username);
+			this.journal.log(Journal.REMOVE_USER, userID);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	User getUser(UUID userID) {
+		User user = this.userIndex.get(userID);
+		if (user == null) {
+			throw new Error("The user is not found");
+		}
+		return user;
+	}
+
+	// users are numbered densely in the order they're added, so events hold their viewers as ints
+	User getUser(int handle) {
+		Lock lock = this.readLock();
+		lock.lock();
+		try {
+			return this.userList.get(handle);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	int[] toUserHandles(ArrayList<UUID> userIDs) {
+		int[] handles = new int[userIDs.size()];
+		for (int i = 0; i < handles.length; ++i) {
+			handles[i] = this.getUser(userIDs.get(i)).handle;
+		}
+		return handles;
 	}
 
 	void addCalendar(Calendar calendar) {
-		this.calendarList.add(calendar);
+		Lock lock = this.writeLock();
+		lock.lock();
+		try {
+			this.calendarList.add(calendar);
+			this.calendarIndex.put(calendar.calendarID, calendar);
+			this.visibilityIndex.addCalendar(calendar);
+			for (int i = 0; i < calendar.eventList.size(); ++i) {
+				this.indexEvent(calendar.eventList.get(i));
+			}
+			this.journal.log(Journal.ADD_CALENDAR, calendar);
+		} finally {
+			lock.unlock();
+		}
 	}
 
 	void removeCalendar(UUID calendarID) {
-		Calendar removedCalendar = this.getCalendar(calendarID);
+		Lock lock = this.writeLock();
+		lock.lock();
+		try {
+			this.dropCalendar(this.getCalendar(calendarID));
+			this.journal.log(Journal.REMOVE_CALENDAR, calendarID);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	// removes the calendar with its events and the timers of its events, archived ones included
+	private void dropCalendar(Calendar removedCalendar) {
 		this.calendarList.remove(removedCalendar);
+		this.calendarIndex.remove(removedCalendar.calendarID);
+		this.visibilityIndex.removeCalendar(removedCalendar);
+		if (removedCalendar.archive != null && this.journal.directory == null) {
+			EventArchive.delete(removedCalendar.archive.directory);
+		}
+		for (int i = 0; i < removedCalendar.eventList.size(); ++i) {
+			this.unindexEvent(removedCalendar.eventList.get(i));
+		}
+		this.dropTimers(this.referenceIndex.getCalendarTimers(removedCalendar.calendarID));
 	}
 
 	Calendar getCalendar(UUID calendarID) {
-		for (int i = 0; i < this.calendarList.size(); ++i) {
-			Calendar calendar = this.calendarList.get(i);
-			if (calendar.calendarID.equals(calendarID)) {
-				return calendar;
-			}
+		Calendar calendar = this.calendarIndex.get(calendarID);
+		if (calendar == null) {
+			throw new Error("The calendar is not found");
 		}
-		throw new Error("The calendar is not found");
+		return calendar;
 	}
 
 	ArrayList<Calendar> getCalendars(UUID userID, Boolean includePublic) {
-		ArrayList<Calendar> calendars = new ArrayList<Calendar>();
-		for (int i = 0; i < this.calendarList.size(); ++i) {
-			Calendar calendar = this.calendarList.get(i);
-			if (calendar.isPublic && includePublic || calendar.owner.equals(userID)) {
-				calendars.add(calendar);
+		Lock lock = this.readLock();
+		lock.lock();
+		try {
+			return this.visibilityIndex.getCalendars(userID, includePublic);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	// returns up to limit of the user's calendars in ID order from after the page token, null meaning the first
+	// page; the calendars are picked in one pass that keeps no more than a page of them
+	Page<Calendar> getCalendarPage(UUID userID, Boolean includePublic, String token, int limit) {
+		checkLimit(limit);
+		UUID afterID = token == null ? null : UUID.fromString(token);
+		// the first limit + 1 calendars after the token, the last of them on top
+		PriorityQueue<Calendar> firstCalendars = new PriorityQueue<Calendar>(limit + 1,
+				Collections.reverseOrder(CALENDAR_ORDER));
+		Lock lock = this.readLock();
+		lock.lock();
+		try {
+			LinkedHashSet<Calendar> owned = this.visibilityIndex.ownedCalendars.get(userID);
+			if (owned != null) {
+				for (Calendar calendar : owned) {
+					keepFirst(firstCalendars, calendar, afterID == null || calendar.calendarID.compareTo(afterID) > 0, limit);
+				}
+			}
+			if (includePublic) {
+				for (Calendar calendar : this.visibilityIndex.publicCalendars) {
+					keepFirst(firstCalendars, calendar, !calendar.owner.equals(userID)
+							&& (afterID == null || calendar.calendarID.compareTo(afterID) > 0), limit);
+				}
 			}
+		} finally {
+			lock.unlock();
+		}
+		ArrayList<Calendar> calendars = new ArrayList<Calendar>(firstCalendars);
+		Collections.sort(calendars, CALENDAR_ORDER);
+		if (calendars.size() <= limit) {
+			return new Page<Calendar>(calendars, null);
+		}
+		calendars.remove(limit);
+		return new Page<Calendar>(calendars, calendars.get(limit - 1).calendarID.toString());
+	}
+
+	void updateAccessibility(Calendar calendar) {
+		if (this.calendarIndex.get(calendar.calendarID) == calendar) {
+			this.visibilityIndex.updateAccessibility(calendar);
 		}
-		return calendars;
 	}
 
 	void addEvent(Event event, UUID calendarID) {
-		Calendar calendar = this.getCalendar(calendarID);
-		calendar.addEvent(event);
+		long startNanos = Metrics.start();
+		Lock lock = this.writeLock();
+		lock.lock();
+		try {
+			Calendar calendar = this.getCalendar(calendarID);
+			calendar.addEvent(event);
+			this.journal.log(Journal.ADD_EVENT, event);
+		} finally {
+			lock.unlock();
+		}
+		Metrics.record(Metrics.Operation.ADD_EVENT, startNanos);
 	}
 
 	void removeEvent(UUID eventID) {
-		Event removedEvent = this.getEvent(eventID);
-		removedEvent.calendar.removeEvent(eventID);
+		Lock lock = this.writeLock();
+		lock.lock();
+		try {
+			Event removedEvent = this.getEvent(eventID);
+			removedEvent.calendar.removeEvent(eventID);
+			// a series takes the timers of its occurrences with it
+			this.dropTimers(this.referenceIndex.getEventTimers(removedEvent));
+			this.journal.log(Journal.REMOVE_EVENT, eventID);
+		} finally {
+			lock.unlock();
+		}
 	}
 
 	Event getEvent(UUID eventID) {
-		for (int i = 0; i < this.calendarList.size(); ++i) {
-			ArrayList<Event> events = this.calendarList.get(i).eventList;
-			for (int j = 0; j < events.size(); ++j) {
-				Event event = events.get(j);
-				if (event.eventID.equals(eventID)) {
-					return event;
+		Event event = this.findEvent(eventID);
+		if (event == null) {
+			throw new Error("The event is not found");
+		}
+		return event;
+	}
+
+	// returns null if there's no such event
+	Event findEvent(UUID eventID) {
+		Event event = this.eventIndex.get(eventID);
+		if (event != null) {
+			return event;
+		}
+		Lock lock = this.readLock();
+		lock.lock();
+		try {
+			event = this.getOccurrence(eventID);
+			for (int i = 0; event == null && i < this.calendarList.size(); ++i) {
+				Calendar calendar = this.calendarList.get(i);
+				if (calendar.archive != null) {
+					event = calendar.archive.getEvent(calendar, eventID);
 				}
 			}
+		} finally {
+			lock.unlock();
+		}
+		return event;
+	}
+
+	// archives live next to the journal so snapshots can refer to them
+	File getArchiveDirectory() {
+		if (this.journal.directory != null) {
+			return this.journal.directory;
+		}
+		return new File(System.getProperty("java.io.tmpdir"), "calendar-archives");
+	}
+
+	// builds the occurrence of a series the ID refers to, or returns null if there is none
+	Event getOccurrence(UUID eventID) {
+		if (!Event.isOccurrenceID(eventID)) {
+			return null;
+		}
+		Lock lock = this.readLock();
+		lock.lock();
+		try {
+			Event series = this.seriesIndex.get(eventID.getMostSignificantBits());
+			if (series == null || eventID.getLeastSignificantBits() > Integer.MAX_VALUE) {
+				return null;
+			}
+			return series.getOccurrence((int) eventID.getLeastSignificantBits());
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	// called by Calendar whenever an event enters or leaves one of the registered calendars
+	void indexEvent(Event event) {
+		if (this.calendarIndex.containsKey(event.calendar.calendarID)) {
+			this.eventIndex.put(event.eventID, event);
+			this.searchIndex.addEvent(event);
+			this.visibilityIndex.addEvent(event);
+			if (event.originalEvent == null) {
+				this.seriesIndex.put(event.eventID.getMostSignificantBits(), event);
+			}
+		}
+	}
+
+	void unindexEvent(Event event) {
+		this.eventIndex.remove(event.eventID);
+		this.searchIndex.removeEvent(event);
+		this.visibilityIndex.removeEvent(event);
+		if (event.originalEvent == null) {
+			this.seriesIndex.remove(event.eventID.getMostSignificantBits(), event);
 		}
-		throw new Error("The event is not found");
 	}
 
 	ArrayList<Event> getEvents(UUID userID, Boolean includePublic) {
+		return this.getEvents(userID, includePublic, null, null);
+	}
+
+	// returns the visible events overlapping [from, to) sorted by start time, null meaning unbounded; large
+	// queries run on the fork/join pool
+	ArrayList<Event> getEvents(UUID userID, Boolean includePublic, final LocalDateTime from, final LocalDateTime to) {
+		long startNanos = Metrics.start();
+		ArrayList<Event> events;
+		ParallelQuery query = new ParallelQuery(true);
+		Lock lock = this.readLock();
+		lock.lock();
+		try {
+			ArrayList<Calendar> calendars = this.visibilityIndex.getCalendars(userID, includePublic);
+			for (int i = 0; i < calendars.size(); ++i) {
+				Calendar calendar = calendars.get(i);
+				if (calendar.isVisible) {
+					query.addCalendar(calendar, from, to);
+				}
+			}
+			if (includePublic) {
+				final ArrayList<Event> sharedEvents = this.visibilityIndex.getSharedEvents(userID);
+				for (int start = 0; start < sharedEvents.size(); start += ParallelQuery.PIECE_SIZE) {
+					final int sharedStart = start;
+					final int sharedEnd = Math.min(sharedEvents.size(), start + ParallelQuery.PIECE_SIZE);
+					query.add(new ParallelQuery.Piece() {
+						void run(ArrayList<Event> events) {
+							for (int i = sharedStart; i < sharedEnd; ++i) {
+								Event event = sharedEvents.get(i);
+								if (event.calendar.isVisible) {
+									events.addAll(event.getOccurrences(from, to));
+								}
+							}
+						}
+					}, sharedEnd - sharedStart);
+				}
+			}
+			events = query.run();
+		} finally {
+			lock.unlock();
+		}
+		Metrics.record(Metrics.Operation.GET_EVENTS, startNanos);
+		return events;
+	}
+
+	// returns the visible events starting in the local day, week, month or year, sorted by start time
+	ArrayList<Event> getEvents(UUID userID, Boolean includePublic, ViewPeriod period, long key) {
+		long startNanos = Metrics.start();
 		ArrayList<Event> events = new ArrayList<Event>();
-		for (int i = 0; i < this.calendarList.size(); ++i) {
-			Calendar calendar = this.calendarList.get(i);
-			if (calendar.isVisible) {
-				for (int j = 0; j < calendar.eventList.size(); ++j) {
-					Event event = calendar.eventList.get(j);
-					if (includePublic && (calendar.isPublic || event.viewers.contains(userID))
-							|| calendar.owner.equals(userID)) {
-						events.add(event);
+		Lock lock = this.readLock();
+		lock.lock();
+		try {
+			ArrayList<Calendar> calendars = this.visibilityIndex.getCalendars(userID, includePublic);
+			for (int i = 0; i < calendars.size(); ++i) {
+				Calendar calendar = calendars.get(i);
+				if (calendar.isVisible) {
+					events.addAll(calendar.getEvents(period, key));
+				}
+			}
+			if (includePublic) {
+				LocalDateTime from = this.toUTCTime(period.start(key));
+				LocalDateTime to = this.toUTCTime(period.end(key));
+				ArrayList<Event> sharedEvents = this.visibilityIndex.getSharedEvents(userID);
+				for (int i = 0; i < sharedEvents.size(); ++i) {
+					Event event = sharedEvents.get(i);
+					if (event.calendar.isVisible) {
+						Calendar.addStartingEvents(events, event.getOccurrences(from, to), from);
 					}
 				}
 			}
+		} finally {
+			lock.unlock();
 		}
+		Collections.sort(events);
+		Metrics.record(Metrics.Operation.GET_EVENTS, startNanos);
 		return events;
 	}
 
-	ArrayList<Event> searchEvent(String query) {
-		ArrayList<Event> results = new ArrayList<Event>();
-		ArrayList<Event> events = this.getEvents(this.currentUser, true);
+	// returns up to limit visible events overlapping [from, to) in start time order, from the page token on, null
+	// meaning the first page; only the events of the page and the one after it are built
+	Page<Event> getEventPage(UUID userID, Boolean includePublic, LocalDateTime from, LocalDateTime to, String token,
+			int limit) {
+		checkLimit(limit);
+		EventCursor cursor = token == null ? new EventCursor(null, null)
+				: new EventCursor(Page.tokenTime(token), Page.tokenID(token));
+		ArrayList<Event> events = new ArrayList<Event>(limit);
+		Lock lock = this.readLock();
+		lock.lock();
+		try {
+			ArrayList<Calendar> calendars = this.visibilityIndex.getCalendars(userID, includePublic);
+			for (int i = 0; i < calendars.size(); ++i) {
+				Calendar calendar = calendars.get(i);
+				if (calendar.isVisible) {
+					cursor.addCalendar(calendar, from, to);
+				}
+			}
+			if (includePublic) {
+				ArrayList<Event> sharedEvents = this.visibilityIndex.getSharedEvents(userID);
+				for (int i = 0; i < sharedEvents.size(); ++i) {
+					if (sharedEvents.get(i).calendar.isVisible) {
+						cursor.addEvent(sharedEvents.get(i), from, to);
+					}
+				}
+			}
+			Event event = cursor.next();
+			while (event != null && events.size() < limit) {
+				events.add(event);
+				event = cursor.next();
+			}
+			if (event == null) {
+				return new Page<Event>(events, null);
+			}
+		} finally {
+			lock.unlock();
+		}
+		Event lastEvent = events.get(events.size() - 1);
+		return new Page<Event>(events, Page.token(lastEvent.startTime, lastEvent.eventID));
+	}
+
+	// returns the first period after the given one in which a visible event starts, null meaning from the start;
+	// returns null if there's none
+	Long nextPeriod(UUID userID, Boolean includePublic, ViewPeriod period, Long key) {
+		Long nextKey = null;
+		Lock lock = this.readLock();
+		lock.lock();
+		try {
+			ArrayList<Calendar> calendars = this.visibilityIndex.getCalendars(userID, includePublic);
+			for (int i = 0; i < calendars.size(); ++i) {
+				Calendar calendar = calendars.get(i);
+				if (calendar.isVisible) {
+					Long calendarKey = calendar.nextPeriod(period, key);
+					if (calendarKey != null && (nextKey == null || calendarKey < nextKey)) {
+						nextKey = calendarKey;
+					}
+				}
+			}
+			if (includePublic) {
+				LocalDateTime from = key == null ? null : this.toUTCTime(period.end(key));
+				ArrayList<Event> sharedEvents = this.visibilityIndex.getSharedEvents(userID);
+				for (int i = 0; i < sharedEvents.size(); ++i) {
+					Event event = sharedEvents.get(i);
+					if (!event.calendar.isVisible) {
+						continue;
+					}
+					if (event.repeatConfig.repeatable) {
+						nextKey = Calendar.earlierPeriod(period, nextKey, event.nextOccurrenceTime(from));
+					} else if (from == null || !event.startTime.isBefore(from)) {
+						nextKey = Calendar.earlierPeriod(period, nextKey, event.startTime);
+					}
+				}
+			}
+		} finally {
+			lock.unlock();
+		}
+		return nextKey;
+	}
+
+	// returns the merged spans within [from, to) in which any of the users has an event
+	ArrayList<TimeSlot> getBusyTimes(Collection<UUID> userIDs, LocalDateTime from, LocalDateTime to) {
+		long[] busyTimes = this.findBusyTimes(userIDs, from, to);
+		ArrayList<TimeSlot> busySlots = new ArrayList<TimeSlot>(busyTimes.length / 2);
+		for (int i = 0; i < busyTimes.length; i += 2) {
+			busySlots.add(new TimeSlot(toTime(busyTimes[i]), toTime(busyTimes[i + 1])));
+		}
+		return busySlots;
+	}
+
+	// returns the gaps within [from, to) of at least the given length in which none of the users has an event
+	ArrayList<TimeSlot> getFreeTimes(Collection<UUID> userIDs, LocalDateTime from, LocalDateTime to, Duration minimum) {
+		long[] busyTimes = this.findBusyTimes(userIDs, from, to);
+		ArrayList<TimeSlot> freeSlots = new ArrayList<TimeSlot>();
+		long freeStart = from.toEpochSecond(ZoneOffset.UTC);
+		for (int i = 0; i <= busyTimes.length; i += 2) {
+			long freeEnd = i < busyTimes.length ? busyTimes[i] : to.toEpochSecond(ZoneOffset.UTC);
+			if (freeEnd - freeStart >= minimum.getSeconds() && freeEnd > freeStart) {
+				freeSlots.add(new TimeSlot(toTime(freeStart), toTime(freeEnd)));
+			}
+			if (i < busyTimes.length) {
+				freeStart = busyTimes[i + 1];
+			}
+		}
+		return freeSlots;
+	}
+
+	// a user is busy during the events of their own visible calendars and the events shared with them; the result
+	// holds the start and end second of each merged busy span in turn
+	private long[] findBusyTimes(Collection<UUID> userIDs, LocalDateTime from, LocalDateTime to) {
+		long fromSecond = from.toEpochSecond(ZoneOffset.UTC);
+		long toSecond = to.toEpochSecond(ZoneOffset.UTC);
+		ArrayList<Event> events = new ArrayList<Event>();
+		Lock lock = this.readLock();
+		lock.lock();
+		try {
+			for (UUID userID : userIDs) {
+				ArrayList<Calendar> calendars = this.visibilityIndex.getCalendars(userID, false);
+				for (int i = 0; i < calendars.size(); ++i) {
+					if (calendars.get(i).isVisible) {
+						events.addAll(calendars.get(i).getEvents(from, to));
+					}
+				}
+				// a shared event keeps the user busy after its calendar is made public
+				ArrayList<Event> sharedEvents = this.visibilityIndex.getAllSharedEvents(userID);
+				for (int i = 0; i < sharedEvents.size(); ++i) {
+					if (sharedEvents.get(i).calendar.isVisible) {
+						events.addAll(sharedEvents.get(i).getOccurrences(from, to));
+					}
+				}
+			}
+		} finally {
+			lock.unlock();
+		}
+
+		// sweeps the start and end times in order, a busy span lasts while any event is in progress
+		long[] startTimes = new long[events.size()];
+		long[] endTimes = new long[events.size()];
+		int count = 0;
 		for (int i = 0; i < events.size(); ++i) {
-			Event event = events.get(i);
-			if (event.title.contains(query)) {
-				results.add(event);
+			long startTime = Math.max(fromSecond, events.get(i).startTime.toEpochSecond(ZoneOffset.UTC));
+			long endTime = Math.min(toSecond, events.get(i).endTime.toEpochSecond(ZoneOffset.UTC));
+			if (startTime < endTime) {
+				startTimes[count] = startTime;
+				endTimes[count] = endTime;
+				++count;
+			}
+		}
+		Arrays.sort(startTimes, 0, count);
+		Arrays.sort(endTimes, 0, count);
+
+		long[] busyTimes = new long[2 * count];
+		int spans = 0;
+		int inProgress = 0;
+		int nextStart = 0;
+		int nextEnd = 0;
+		while (nextEnd < count) {
+			// an event starting as another ends continues the span
+			if (nextStart < count && startTimes[nextStart] <= endTimes[nextEnd]) {
+				if (inProgress++ == 0) {
+					busyTimes[2 * spans] = startTimes[nextStart];
+				}
+				++nextStart;
+			} else {
+				if (--inProgress == 0) {
+					busyTimes[2 * spans + 1] = endTimes[nextEnd];
+					++spans;
+				}
+				++nextEnd;
+			}
+		}
+		return Arrays.copyOf(busyTimes, 2 * spans);
+	}
+
+	private static LocalDateTime toTime(long second) {
+		return LocalDateTime.ofEpochSecond(second, 0, ZoneOffset.UTC);
+	}
+
+	// returns the occurrences of the visible events whose titles contain every word of the query, best matches first
+	ArrayList<Event> searchEvent(final UUID userID, String query) {
+		final ArrayList<String> terms = SearchIndex.tokenize(query);
+		if (terms.isEmpty()) {
+			return this.getEvents(userID, true);
+		}
+		long startNanos = Metrics.start();
+		ArrayList<Event> results;
+		// pieces keep their order, so the best matches stay first
+		ParallelQuery parallelQuery = new ParallelQuery(false);
+		Lock lock = this.readLock();
+		lock.lock();
+		try {
+			final ArrayList<Event> matches = this.searchIndex.search(query);
+			for (int start = 0; start < matches.size(); start += ParallelQuery.PIECE_SIZE) {
+				final int matchesStart = start;
+				final int matchesEnd = Math.min(matches.size(), start + ParallelQuery.PIECE_SIZE);
+				parallelQuery.add(new ParallelQuery.Piece() {
+					void run(ArrayList<Event> events) {
+						for (int i = matchesStart; i < matchesEnd; ++i) {
+							Event event = matches.get(i);
+							if (CalendarManager.this.visibilityIndex.isVisible(event, userID, true)) {
+								events.addAll(event.getOccurrences(null, null));
+							}
+						}
+					}
+				}, matchesEnd - matchesStart);
 			}
+			// archived events aren't indexed, their titles are scanned instead
+			ArrayList<Calendar> calendars = this.visibilityIndex.getCalendars(userID, true);
+			for (int i = 0; i < calendars.size(); ++i) {
+				final Calendar calendar = calendars.get(i);
+				if (calendar.isVisible && calendar.archive != null) {
+					parallelQuery.add(new ParallelQuery.Piece() {
+						void run(ArrayList<Event> events) {
+							events.addAll(calendar.archive.search(calendar, terms));
+						}
+					}, calendar.archive.size);
+				}
+			}
+			results = parallelQuery.run();
+		} finally {
+			lock.unlock();
 		}
+		Metrics.record(Metrics.Operation.SEARCH_EVENT, startNanos);
 		return results;
 	}
 
+	// returns up to limit results of searchEvent from the page token on, null meaning the first page; the token
+	// holds a position in the ranking, which is found anew for every page, and the occurrences of the matches
+	// before it aren't built
+	Page<Event> searchEventPage(UUID userID, String query, String token, int limit) {
+		ArrayList<String> terms = SearchIndex.tokenize(query);
+		if (terms.isEmpty()) {
+			return this.getEventPage(userID, true, null, null, token, limit);
+		}
+		checkLimit(limit);
+		// indexed matches are positioned by rank and occurrence, archived ones by calendar and row
+		boolean inArchives = false;
+		int position = 0;
+		int subPosition = 0;
+		if (token != null) {
+			String[] parts = token.split("\\.");
+			if (parts.length != 3 || !parts[0].equals("m") && !parts[0].equals("a")) {
+				throw new Error("The page token is invalid");
+			}
+			inArchives = parts[0].equals("a");
+			position = Integer.parseInt(parts[1]);
+			subPosition = Integer.parseInt(parts[2]);
+		}
+		ArrayList<Event> results = new ArrayList<Event>(limit);
+		Lock lock = this.readLock();
+		lock.lock();
+		try {
+			if (!inArchives) {
+				ArrayList<Event> matches = this.searchIndex.search(query);
+				for (int i = position; i < matches.size(); ++i) {
+					Event event = matches.get(i);
+					if (!this.visibilityIndex.isVisible(event, userID, true)) {
+						continue;
+					}
+					if (!event.repeatConfig.repeatable) {
+						if (results.size() == limit) {
+							return new Page<Event>(results, "m." + i + ".0");
+						}
+						results.add(event);
+						continue;
+					}
+					int occurrenceIndex = i == position ? subPosition : 0;
+					for (; !event.occurrenceTime(event.startTime, occurrenceIndex).isAfter(event.repeatConfig.repeatUntil);
+							++occurrenceIndex) {
+						if (event.skippedOccurrences.contains(occurrenceIndex)) {
+							continue;
+						}
+						if (results.size() == limit) {
+							return new Page<Event>(results, "m." + i + "." + occurrenceIndex);
+						}
+						results.add(occurrenceIndex == 0 ? event : event.getOccurrence(occurrenceIndex));
+					}
+				}
+				position = 0;
+				subPosition = 0;
+			}
+
+			ArrayList<Calendar> calendars = this.visibilityIndex.getCalendars(userID, true);
+			for (int i = position; i < calendars.size(); ++i) {
+				Calendar calendar = calendars.get(i);
+				if (!calendar.isVisible || calendar.archive == null) {
+					continue;
+				}
+				int row = i == position ? subPosition : 0;
+				while (row < calendar.archive.size) {
+					if (results.size() == limit) {
+						ArrayList<Event> nextResult = new ArrayList<Event>(1);
+						int nextRow = calendar.archive.search(calendar, terms, row, 1, nextResult);
+						if (nextResult.isEmpty()) {
+							break;
+						}
+						return new Page<Event>(results, "a." + i + "." + (nextRow - 1));
+					}
+					row = calendar.archive.search(calendar, terms, row, limit - results.size(), results);
+				}
+			}
+		} finally {
+			lock.unlock();
+		}
+		return new Page<Event>(results, null);
+	}
+
 	void addTimer(CountdownTimer timer) {
-		this.timerList.add(timer);
+		Lock lock = this.writeLock();
+		lock.lock();
+		try {
+			this.getUser(timer.owner);
+			if (timer.event != null) {
+				timer.calendar = this.getEvent(timer.event).calendar;
+			}
+			this.referenceIndex.addTimer(timer);
+			this.timerIndex.put(timer.timerID, timer);
+			this.timerWheel.schedule(timer);
+			this.journal.log(Journal.ADD_TIMER, timer);
+		} finally {
+			lock.unlock();
+		}
 	}
 
 	void removeTimer(UUID timerID) {
-		CountdownTimer removedTimer = this.getTimer(timerID);
-		this.timerList.remove(removedTimer);
+		Lock lock = this.writeLock();
+		lock.lock();
+		try {
+			ArrayList<CountdownTimer> removedTimers = new ArrayList<CountdownTimer>();
+			removedTimers.add(this.getTimer(timerID));
+			this.dropTimers(removedTimers);
+			this.journal.log(Journal.REMOVE_TIMER, timerID);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	// removing a user, calendar or event removes its timers within the same journal record
+	private void dropTimers(ArrayList<CountdownTimer> removedTimers) {
+		for (int i = 0; i < removedTimers.size(); ++i) {
+			CountdownTimer removedTimer = removedTimers.get(i);
+			this.referenceIndex.removeTimer(removedTimer);
+			this.timerIndex.remove(removedTimer.timerID);
+			this.timerWheel.cancel(removedTimer.timerID);
+		}
+	}
+
+	// the timers of occurrences a series no longer has, after its times or rule changed
+	void dropOccurrenceTimers(Event series) {
+		if (series.originalEvent != null) {
+			return;
+		}
+		ArrayList<CountdownTimer> timers = this.referenceIndex.getOccurrenceTimers(series);
+		ArrayList<CountdownTimer> removedTimers = new ArrayList<CountdownTimer>();
+		for (int i = 0; i < timers.size(); ++i) {
+			long occurrenceIndex = timers.get(i).event.getLeastSignificantBits();
+			if (occurrenceIndex > Integer.MAX_VALUE || series.getOccurrence((int) occurrenceIndex) == null) {
+				removedTimers.add(timers.get(i));
+			}
+		}
+		this.dropTimers(removedTimers);
 	}
 
 	CountdownTimer getTimer(UUID timerID) {
-		for (int i = 0; i < this.timerList.size(); ++i) {
-			CountdownTimer timer = this.timerList.get(i);
-			if (timer.timerID.equals(timerID)) {
-				return timer;
+		CountdownTimer timer = this.timerIndex.get(timerID);
+		if (timer == null) {
+			throw new Error("The timer is not found");
+		}
+		return timer;
+	}
+
+	// returns up to limit of the user's timers, the earliest ending first, from after the page token, null meaning
+	// the first page; the timers are picked in one pass that keeps no more than a page of them
+	Page<CountdownTimer> getTimerPage(UUID userID, String token, int limit) {
+		checkLimit(limit);
+		LocalDateTime afterTime = token == null ? null : Page.tokenTime(token);
+		UUID afterID = token == null ? null : Page.tokenID(token);
+		// the first limit + 1 timers after the token, the last of them on top
+		PriorityQueue<CountdownTimer> firstTimers = new PriorityQueue<CountdownTimer>(limit + 1,
+				Collections.reverseOrder(TIMER_ORDER));
+		Lock lock = this.readLock();
+		lock.lock();
+		try {
+			LinkedHashSet<CountdownTimer> owned = this.referenceIndex.ownedTimers.get(userID);
+			if (owned != null) {
+				for (CountdownTimer timer : owned) {
+					keepFirst(firstTimers, timer, afterTime == null || timer.endTime.isAfter(afterTime)
+							|| timer.endTime.equals(afterTime) && timer.timerID.compareTo(afterID) > 0, limit);
+				}
 			}
+		} finally {
+			lock.unlock();
 		}
-		throw new Error("The timer is not found");
+		ArrayList<CountdownTimer> timers = new ArrayList<CountdownTimer>(firstTimers);
+		Collections.sort(timers, TIMER_ORDER);
+		if (timers.size() <= limit) {
+			return new Page<CountdownTimer>(timers, null);
+		}
+		timers.remove(limit);
+		CountdownTimer lastTimer = timers.get(limit - 1);
+		return new Page<CountdownTimer>(timers, Page.token(lastTimer.endTime, lastTimer.timerID));
 	}
 
-	ArrayList<CountdownTimer> getTimers(UUID userID) {
-		ArrayList<CountdownTimer> timers = new ArrayList<CountdownTimer>();
-		for (int i = 0; i < this.timerList.size(); ++i) {
-			CountdownTimer timer = this.timerList.get(i);
-			if (timer.owner.equals(userID)) {
-				timers.add(timer);
+	private static <T> void keepFirst(PriorityQueue<T> first, T item, boolean isCandidate, int limit) {
+		if (isCandidate) {
+			first.add(item);
+			if (first.size() > limit + 1) {
+				first.poll();
 			}
 		}
-		return timers;
+	}
+
+	private static void checkLimit(int limit) {
+		if (limit <= 0) {
+			throw new Error("The page size must be positive");
+		}
+	}
+
+	ArrayList<CountdownTimer> getTimers(UUID userID) {
+		Lock lock = this.readLock();
+		lock.lock();
+		try {
+			return this.referenceIndex.getTimers(userID);
+		} finally {
+			lock.unlock();
+		}
 	}
 
 }
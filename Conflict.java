@@ -0,0 +1,24 @@
+package calendar;
+
+// two events of a calendar whose times overlap, the earlier one first
+class Conflict {
+
+	Event event;
+	Event otherEvent;
+
+	Conflict(Event event, Event otherEvent) {
+		this.event = event;
+		this.otherEvent = otherEvent;
+	}
+
+	public String toString() {
+		return describe(this.event) + "\noverlaps\n" + describe(this.otherEvent);
+	}
+
+	static String describe(Event event) {
+		CalendarManager calendarManager = CalendarManager.getCalendarManager();
+		return event.title + " (" + event.eventID + "): " + calendarManager.toLocalTime(event.startTime) + " - "
+				+ calendarManager.toLocalTime(event.endTime);
+	}
+
+}
@@ -1,6 +1,7 @@
 package calendar;
 
 import java.time.LocalDateTime;
+import java.time.ZoneOffset;
 import java.time.temporal.ChronoUnit;
 import java.util.UUID;
 
@@ -11,6 +12,8 @@ class CountdownTimer {
 	LocalDateTime endTime;
 	UUID owner;
 	UUID event;
+	// the calendar of the event, set while the timer is added
+	Calendar calendar;
 
 	CountdownTimer(String name, LocalDateTime endTime, UUID owner, UUID event) {
 		this.timerID = UUID.randomUUID();
@@ -20,40 +23,38 @@ class CountdownTimer {
 		this.event = event;
 	}
 
-	String calcRemainingTime() {
-		LocalDateTime currentTime = LocalDateTime.now();
+	static final String[] TIME_UNITS = { " years", " months", " days", " hours", " minutes", " seconds" };
+
+	// years, months, days, hours, minutes and seconds left, all zero once the timer is up
+	int[] remainingTime() {
+		int[] remainingTime = new int[TIME_UNITS.length];
+		LocalDateTime currentTime = LocalDateTime.now(ZoneOffset.UTC);
 
 		if (currentTime.isAfter(this.endTime)) {
-			return "0 years, 0 months, 0 days, 0 hours, 0 minutes, 0 seconds";
+			return remainingTime;
 		}
 
-		int years = (int) currentTime.until(this.endTime, ChronoUnit.YEARS);
-		currentTime = currentTime.plusYears(years);
-
-		int months = (int) currentTime.until(this.endTime, ChronoUnit.MONTHS);
-		currentTime = currentTime.plusMonths(months);
+		remainingTime[0] = (int) currentTime.until(this.endTime, ChronoUnit.YEARS);
+		currentTime = currentTime.plusYears(remainingTime[0]);
 
-		int days = (int) currentTime.until(this.endTime, ChronoUnit.DAYS);
-		currentTime = currentTime.plusDays(days);
+		remainingTime[1] = (int) currentTime.until(this.endTime, ChronoUnit.MONTHS);
+		currentTime = currentTime.plusMonths(remainingTime[1]);
 
-		int hours = (int) currentTime.until(this.endTime, ChronoUnit.HOURS);
-		currentTime = currentTime.plusHours(hours);
+		remainingTime[2] = (int) currentTime.until(this.endTime, ChronoUnit.DAYS);
+		currentTime = currentTime.plusDays(remainingTime[2]);
 
-		int minutes = (int) currentTime.until(this.endTime, ChronoUnit.MINUTES);
-		currentTime = currentTime.plusMinutes(minutes);
+		remainingTime[3] = (int) currentTime.until(this.endTime, ChronoUnit.HOURS);
+		currentTime = currentTime.plusHours(remainingTime[3]);
 
-		int seconds = (int) currentTime.until(this.endTime, ChronoUnit.SECONDS);
+		remainingTime[4] = (int) currentTime.until(this.endTime, ChronoUnit.MINUTES);
+		currentTime = currentTime.plusMinutes(remainingTime[4]);
 
-		return years + " years, " + months + " months, " + days + " days, " + hours
-				+ " hours, " + minutes + " minutes, " + seconds + " seconds";
+		remainingTime[5] = (int) currentTime.until(this.endTime, ChronoUnit.SECONDS);
+		return remainingTime;
 	}
 
 	public String toString() {
-		return "Timer ID: " + this.timerID + "\n"
-				+ "Timer name: " + this.name + "\n"
-				+ "Timer creator: " + CalendarManager.getCalendarManager().getUser(this.owner).username + "\n"
-				+ "End Time: " + this.endTime + "\n"
-				+ "Time remaining: " + calcRemainingTime();
+		return Renderer.render(this);
 	}
 
 }
@@ -1,164 +1,453 @@
 package calendar;
 
 import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.UUID;
+import java.util.concurrent.locks.Lock;
 
+// a series stores its fields once and its occurrences are built from it on demand; an occurrence edited on its
+// own becomes a stored override that keeps following the series in every field it didn't change, and a removed
+// occurrence is only remembered as skipped
 class Event implements Comparable<Event> {
 
+	// the fields an override has changed on its own
+	static final int OVERRIDES_TITLE = 1;
+	static final int OVERRIDES_START_TIME = 2;
+	static final int OVERRIDES_END_TIME = 4;
+	static final int OVERRIDES_VIEWERS = 8;
+
 	UUID eventID;
 	String title;
 	Calendar calendar;
-	ArrayList<UUID> viewers;
+	int[] viewers;
 	LocalDateTime startTime;
 	LocalDateTime endTime;
 	RepeatConfig repeatConfig;
 	UUID originalEvent;
-	ArrayList<UUID> repeatingEvents;
+	IntSet editedOccurrences;
+	IntSet skippedOccurrences;
+	int occurrenceIndex;
+	int overriddenFields;
+	int archiveRow;
+
+	private static final RepeatConfig OCCURRENCE_CONFIG = new RepeatConfig(false, null, null);
 
 	Event(String title, UUID calendarID, ArrayList<UUID> viewers, LocalDateTime startTime,
 			LocalDateTime endTime, RepeatConfig repeatConfig, UUID originalEvent) {
+		this(title, CalendarManager.getCalendarManager().getCalendar(calendarID),
+				CalendarManager.getCalendarManager().toUserHandles(viewers), startTime, endTime, repeatConfig, originalEvent);
+	}
+
+	// viewers are user handles; the array is never changed in place, so events may share it
+	Event(String title, Calendar calendar, int[] viewers, LocalDateTime startTime,
+			LocalDateTime endTime, RepeatConfig repeatConfig, UUID originalEvent) {
 		this.eventID = UUID.randomUUID();
 		this.title = title;
-		this.calendar = CalendarManager.getCalendarManager().getCalendar(calendarID);
+		this.calendar = calendar;
 		this.viewers = viewers;
 		this.startTime = startTime;
 		this.endTime = endTime;
 		this.repeatConfig = repeatConfig;
 		this.originalEvent = originalEvent;
+		this.occurrenceIndex = 0;
+		this.archiveRow = -1;
 		this.repeatEvent();
 	}
 
+	// occurrences of a series are only built on demand and are not stored in the calendar
+	private Event(Event series, int occurrenceIndex) {
+		this.eventID = series.occurrenceID(occurrenceIndex);
+		this.title = series.title;
+		this.calendar = series.calendar;
+		this.viewers = series.viewers;
+		this.startTime = series.occurrenceTime(series.startTime, occurrenceIndex);
+		this.endTime = series.occurrenceTime(series.endTime, occurrenceIndex);
+		this.repeatConfig = OCCURRENCE_CONFIG;
+		this.originalEvent = series.eventID;
+		this.occurrenceIndex = occurrenceIndex;
+		this.archiveRow = -1;
+	}
+
+	// occurrence IDs keep the series' most significant bits and carry the occurrence index in the
+	// least significant ones, which can't clash with random UUIDs since their variant bit is set
+	static boolean isOccurrenceID(UUID eventID) {
+		return eventID.getLeastSignificantBits() > 0;
+	}
+
+	UUID occurrenceID(int occurrenceIndex) {
+		return new UUID(this.eventID.getMostSignificantBits(), occurrenceIndex);
+	}
+
+	boolean hasViewer(int userHandle) {
+		for (int i = 0; i < this.viewers.length; ++i) {
+			if (this.viewers[i] == userHandle) {
+				return true;
+			}
+		}
+		return false;
+	}
+
 	void setEventTitle(String title) {
-		this.title = title;
-		if (this.repeatConfig.repeatable) {
-			for (int i = 0; i < this.repeatingEvents.size(); ++i) {
-				Event event = this.calendar.getEvent(this.repeatingEvents.get(i));
-				event.setEventTitle(title);
+		Lock lock = CalendarManager.getCalendarManager().writeLock();
+		lock.lock();
+		try {
+			this.materialize(OVERRIDES_TITLE);
+			this.retitle(title);
+			if (this.repeatConfig.repeatable) {
+				for (int i = 0; i < this.editedOccurrences.size(); ++i) {
+					Event event = this.calendar.getEvent(this.occurrenceID(this.editedOccurrences.get(i)));
+					if ((event.overriddenFields & OVERRIDES_TITLE) == 0) {
+						event.retitle(title);
+					}
+				}
 			}
+			CalendarManager.getCalendarManager().journal.log(Journal.SET_EVENT_TITLE, this.eventID, title);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private void retitle(String title) {
+		CalendarManager calendarManager = CalendarManager.getCalendarManager();
+		boolean isIndexed = calendarManager.eventIndex.get(this.eventID) == this;
+		if (isIndexed) {
+			calendarManager.searchIndex.removeEvent(this);
+		}
+		this.title = title;
+		if (isIndexed) {
+			calendarManager.searchIndex.addEvent(this);
 		}
 	}
 
 	void setStartTime(LocalDateTime startTime) {
-		this.startTime = startTime;
-		if (this.repeatConfig.repeatable) {
-			this.removeRepeatingEvents();
-			this.repeatEvent();
+		Lock lock = CalendarManager.getCalendarManager().writeLock();
+		lock.lock();
+		try {
+			if (this.repeatConfig.repeatable && !startTime.isBefore(this.repeatConfig.repeatUntil)) {
+				throw new Error("Event start time must be before end repeat time.");
+			}
+			if (!startTime.isBefore(this.endTime)) {
+				throw new Error("Event start time must be before end time.");
+			}
+			this.materialize(OVERRIDES_START_TIME);
+			this.calendar.unscheduleEvent(this);
+			this.startTime = startTime;
+			this.calendar.scheduleEvent(this);
+			if (this.repeatConfig.repeatable) {
+				this.moveOverrides();
+			}
+			CalendarManager.getCalendarManager().journal.log(Journal.SET_START_TIME, this.eventID, startTime);
+		} finally {
+			lock.unlock();
 		}
 	}
 
 	void setEndTime(LocalDateTime endTime) {
-		this.endTime = endTime;
-		if (this.repeatConfig.repeatable) {
-			this.removeRepeatingEvents();
-			this.repeatEvent();
+		Lock lock = CalendarManager.getCalendarManager().writeLock();
+		lock.lock();
+		try {
+			if (!endTime.isAfter(this.startTime)) {
+				throw new Error("Event end time must be after start time.");
+			}
+			this.materialize(OVERRIDES_END_TIME);
+			this.calendar.unscheduleEvent(this);
+			this.endTime = endTime;
+			this.calendar.scheduleEvent(this);
+			if (this.repeatConfig.repeatable) {
+				this.moveOverrides();
+			}
+			CalendarManager.getCalendarManager().journal.log(Journal.SET_END_TIME, this.eventID, endTime);
+		} finally {
+			lock.unlock();
 		}
 	}
 
+	// a new rule numbers the occurrences differently, so the overrides and skipped occurrences are dropped
 	void setRepeatable(RepeatConfig repeatConfig) {
-		if (this.repeatConfig.repeatable) {
-			this.removeRepeatingEvents();
-		}
-
-		this.repeatConfig = repeatConfig;
+		Lock lock = CalendarManager.getCalendarManager().writeLock();
+		lock.lock();
+		try {
+			this.checkRepeatConfig(repeatConfig);
+			this.materialize(0);
+			this.calendar.unscheduleEvent(this);
+			if (this.repeatConfig.repeatable) {
+				this.removeRepeatingEvents();
+			}
 
-		if (this.repeatConfig.repeatable) {
+			this.repeatConfig = repeatConfig;
 			this.repeatEvent();
-		} else {
-			this.repeatingEvents = null;
+			this.calendar.scheduleEvent(this);
+			CalendarManager.getCalendarManager().dropOccurrenceTimers(this);
+			CalendarManager.getCalendarManager().journal.log(Journal.SET_REPEATABLE, this.eventID, repeatConfig);
+		} finally {
+			lock.unlock();
 		}
 	}
 
-	void updateTimeByTimeZone(int timeDiff) {
-		this.startTime = this.startTime.plusHours(timeDiff);
-		this.endTime = this.endTime.plusHours(timeDiff);
-		if (this.repeatConfig.repeatable) {
-			for (int i = 0; i < this.repeatingEvents.size(); ++i) {
-				Event event = this.calendar.getEvent(this.repeatingEvents.get(i));
-				event.updateTimeByTimeZone(timeDiff);
+	void shareEventWith(UUID userID) {
+		Lock lock = CalendarManager.getCalendarManager().writeLock();
+		lock.lock();
+		try {
+			this.materialize(OVERRIDES_VIEWERS);
+			this.share(userID);
+			if (this.repeatConfig.repeatable) {
+				for (int i = 0; i < this.editedOccurrences.size(); ++i) {
+					Event event = this.calendar.getEvent(this.occurrenceID(this.editedOccurrences.get(i)));
+					if ((event.overriddenFields & OVERRIDES_VIEWERS) == 0) {
+						event.share(userID);
+					}
+				}
 			}
+			CalendarManager.getCalendarManager().journal.log(Journal.SHARE_EVENT, this.eventID, userID);
+		} finally {
+			lock.unlock();
 		}
 	}
 
-	void shareEventWith(UUID userID) {
-		if (!this.viewers.contains(userID)) {
-			this.viewers.add(userID);
+	private void share(UUID userID) {
+		CalendarManager calendarManager = CalendarManager.getCalendarManager();
+		int userHandle = calendarManager.getUser(userID).handle;
+		if (!this.hasViewer(userHandle)) {
+			int[] viewers = Arrays.copyOf(this.viewers, this.viewers.length + 1);
+			viewers[this.viewers.length] = userHandle;
+			this.viewers = viewers;
+			if (calendarManager.eventIndex.get(this.eventID) == this) {
+				calendarManager.visibilityIndex.shareEvent(this, userID);
+			}
 		}
-		if (this.repeatConfig.repeatable) {
-			for (int i = 0; i < this.repeatingEvents.size(); ++i) {
-				Event event = this.calendar.getEvent(this.repeatingEvents.get(i));
-				event.shareEventWith(userID);
+	}
+
+	// the caller takes the event off the user's shared events
+	void unshare(int userHandle) {
+		int[] viewers = new int[this.viewers.length];
+		int viewerCount = 0;
+		for (int i = 0; i < this.viewers.length; ++i) {
+			if (this.viewers[i] != userHandle) {
+				viewers[viewerCount++] = this.viewers[i];
 			}
 		}
+		this.viewers = Arrays.copyOf(viewers, viewerCount);
 	}
 
-	private void repeatEvent() {
-		if (!this.repeatConfig.repeatable) {
-			this.repeatingEvents = null;
+	// throws if the event can't repeat by the rule, so a change is refused before anything is changed
+	private void checkRepeatConfig(RepeatConfig repeatConfig) {
+		if (!repeatConfig.repeatable) {
 			return;
 		}
 		if (this.originalEvent != null) {
 			throw new Error("Repeating events can't be repeated.");
 		}
-		if (!this.startTime.isBefore(this.repeatConfig.repeatUntil)) {
+		if (repeatConfig.repeatUntil == null || !this.startTime.isBefore(repeatConfig.repeatUntil)) {
 			throw new Error("Event start time must be before end repeat time.");
 		}
+		if (repeatConfig.repeatFrequency == null) {
+			throw new Error("The repeat frequency is undefined");
+		}
+	}
+
+	private void repeatEvent() {
+		if (!this.repeatConfig.repeatable) {
+			this.editedOccurrences = null;
+			this.skippedOccurrences = null;
+			return;
+		}
+		this.checkRepeatConfig(this.repeatConfig);
 
-		this.repeatingEvents = new ArrayList<UUID>();
-		LocalDateTime eventStartTime = LocalDateTime.from(this.startTime);
-		LocalDateTime eventEndTime = LocalDateTime.from(this.endTime);
-
-		while (!eventStartTime.isAfter(this.repeatConfig.repeatUntil)) {
-			if (this.repeatConfig.repeatFrequency == RepeatType.DAILY) {
-				eventStartTime = eventStartTime.plusDays(1);
-				eventEndTime = eventEndTime.plusDays(1);
-			} else if (this.repeatConfig.repeatFrequency == RepeatType.WEEKLY) {
-				eventStartTime = eventStartTime.plusWeeks(1);
-				eventEndTime = eventEndTime.plusWeeks(1);
-			} else if (this.repeatConfig.repeatFrequency == RepeatType.MONTHLY) {
-				eventStartTime = eventStartTime.plusMonths(1);
-				eventEndTime = eventEndTime.plusMonths(1);
-			} else if (this.repeatConfig.repeatFrequency == RepeatType.QUARTERLY) {
-				eventStartTime = eventStartTime.plusMonths(3);
-				eventEndTime = eventEndTime.plusMonths(3);
-			} else if (this.repeatConfig.repeatFrequency == RepeatType.ANNUALLY) {
-				eventStartTime = eventStartTime.plusYears(1);
-				eventEndTime = eventEndTime.plusYears(1);
-			} else {
-				throw new Error("The repeat frequency is undefined");
+		// only occurrences edited on their own are stored, see materialize()
+		this.editedOccurrences = new IntSet();
+		this.skippedOccurrences = new IntSet();
+	}
+
+	Event getOccurrence(int occurrenceIndex) {
+		if (!this.repeatConfig.repeatable || occurrenceIndex < 1 || this.skippedOccurrences.contains(occurrenceIndex)
+				|| this.occurrenceTime(this.startTime, occurrenceIndex).isAfter(this.repeatConfig.repeatUntil)) {
+			return null;
+		}
+		return new Event(this, occurrenceIndex);
+	}
+
+	// returns the event itself and its occurrences overlapping [from, to), null meaning unbounded
+	ArrayList<Event> getOccurrences(LocalDateTime from, LocalDateTime to) {
+		ArrayList<Event> occurrences = new ArrayList<Event>();
+		if (!this.repeatConfig.repeatable) {
+			if ((from == null || !this.endTime.isBefore(from)) && (to == null || this.startTime.isBefore(to))) {
+				occurrences.add(this);
 			}
+			return occurrences;
+		}
 
-			if (eventStartTime.isAfter(this.repeatConfig.repeatUntil)) {
+		long startNanos = Metrics.start();
+		int occurrenceIndex = 0;
+		if (from != null && this.endTime.isBefore(from)) {
+			occurrenceIndex = (int) Math.max(0, this.occurrencesBetween(this.endTime, from) - 1);
+		}
+		while (true) {
+			LocalDateTime eventStartTime = this.occurrenceTime(this.startTime, occurrenceIndex);
+			if (eventStartTime.isAfter(this.repeatConfig.repeatUntil) || to != null && !eventStartTime.isBefore(to)) {
 				break;
 			}
+			LocalDateTime eventEndTime = this.occurrenceTime(this.endTime, occurrenceIndex);
+			if ((from == null || !eventEndTime.isBefore(from)) && !this.skippedOccurrences.contains(occurrenceIndex)) {
+				occurrences.add(occurrenceIndex == 0 ? this : new Event(this, occurrenceIndex));
+			}
+			++occurrenceIndex;
+		}
+		Metrics.record(Metrics.Operation.EXPAND_SERIES, startNanos);
+		return occurrences;
+	}
 
-			RepeatConfig repeatConfig = new RepeatConfig(false, null, null);
+	// the occurrences the series has left, its edited ones included
+	int occurrenceCount() {
+		long occurrenceIndex = this.occurrencesBetween(this.startTime, this.repeatConfig.repeatUntil);
+		// months of different lengths can put one more occurrence before the end
+		while (!this.occurrenceTime(this.startTime, occurrenceIndex + 1).isAfter(this.repeatConfig.repeatUntil)) {
+			++occurrenceIndex;
+		}
+		long occurrences = occurrenceIndex + 1 - this.skippedOccurrences.size() + this.editedOccurrences.size();
+		return (int) Math.min(Integer.MAX_VALUE, occurrences);
+	}
 
-			Event event = new Event(this.title, this.calendar.calendarID, this.copyViewers(),
-					eventStartTime, eventEndTime, repeatConfig, this.eventID);
-			this.calendar.addEvent(event);
-			this.repeatingEvents.add(event.eventID);
+	// returns the start of the first occurrence starting at or after the given time, null meaning from the
+	// start; returns null if the series ends before it
+	LocalDateTime nextOccurrenceTime(LocalDateTime from) {
+		long occurrenceIndex = 0;
+		if (from != null && from.isAfter(this.startTime)) {
+			occurrenceIndex = this.occurrencesBetween(this.startTime, from);
+		}
+		while (true) {
+			LocalDateTime eventStartTime = this.occurrenceTime(this.startTime, occurrenceIndex);
+			if (eventStartTime.isAfter(this.repeatConfig.repeatUntil)) {
+				return null;
+			}
+			if ((from == null || !eventStartTime.isBefore(from)) && !this.skippedOccurrences.contains((int) occurrenceIndex)) {
+				return eventStartTime;
+			}
+			++occurrenceIndex;
 		}
 	}
 
-	private void removeRepeatingEvents() {
-		// make a deep copy of repeatingEvents
-		ArrayList<UUID> events = new ArrayList<UUID>();
-		for(int i = 0; i < this.repeatingEvents.size(); ++i) {
-			events.add(this.repeatingEvents.get(i));
+	// returns the index of the occurrence starting at the given time, or -1 if none of the series does
+	int occurrenceIndexOf(LocalDateTime startTime) {
+		if (!this.repeatConfig.repeatable || startTime.isBefore(this.startTime)) {
+			return -1;
+		}
+		long occurrenceIndex = this.occurrencesBetween(this.startTime, startTime);
+		if (occurrenceIndex > Integer.MAX_VALUE || !this.occurrenceTime(this.startTime, occurrenceIndex).equals(startTime)) {
+			return -1;
 		}
+		return (int) occurrenceIndex;
+	}
 
-		for (int i = 0; i < events.size(); ++i) {
-			this.calendar.removeEvent(events.get(i));
+	// the index of an occurrence at or before the first one that can overlap a window starting at from and
+	// doesn't start before the given time, null meaning unbounded
+	int firstOccurrenceIndex(LocalDateTime from, LocalDateTime startingFrom) {
+		long occurrenceIndex = 0;
+		if (from != null && this.endTime.isBefore(from)) {
+			occurrenceIndex = Math.max(0, this.occurrencesBetween(this.endTime, from) - 1);
+		}
+		if (startingFrom != null && startingFrom.isAfter(this.startTime)) {
+			occurrenceIndex = Math.max(occurrenceIndex, this.occurrencesBetween(this.startTime, startingFrom) - 1);
 		}
+		return (int) Math.min(Integer.MAX_VALUE, occurrenceIndex);
+	}
+
+	LocalDateTime occurrenceTime(LocalDateTime time, long occurrenceIndex) {
+		return occurrenceTime(this.repeatConfig.repeatFrequency, time, occurrenceIndex);
 	}
 
-	private ArrayList<UUID> copyViewers() {
-		ArrayList<UUID> viewers = new ArrayList<UUID>();
-		for(int i = 0; i < this.viewers.size(); ++i) {
-			viewers.add(this.viewers.get(i));
+	static LocalDateTime occurrenceTime(RepeatType repeatFrequency, LocalDateTime time, long occurrenceIndex) {
+		if (repeatFrequency == RepeatType.DAILY) {
+			return time.plusDays(occurrenceIndex);
+		} else if (repeatFrequency == RepeatType.WEEKLY) {
+			return time.plusWeeks(occurrenceIndex);
+		} else if (repeatFrequency == RepeatType.MONTHLY) {
+			return time.plusMonths(occurrenceIndex);
+		} else if (repeatFrequency == RepeatType.QUARTERLY) {
+			return time.plusMonths(occurrenceIndex * 3);
+		} else if (repeatFrequency == RepeatType.ANNUALLY) {
+			return time.plusYears(occurrenceIndex);
+		} else {
+			throw new Error("The repeat frequency is undefined");
+		}
+	}
+
+	private long occurrencesBetween(LocalDateTime from, LocalDateTime to) {
+		if (this.repeatConfig.repeatFrequency == RepeatType.DAILY) {
+			return ChronoUnit.DAYS.between(from, to);
+		} else if (this.repeatConfig.repeatFrequency == RepeatType.WEEKLY) {
+			return ChronoUnit.WEEKS.between(from, to);
+		} else if (this.repeatConfig.repeatFrequency == RepeatType.MONTHLY) {
+			return ChronoUnit.MONTHS.between(from, to);
+		} else if (this.repeatConfig.repeatFrequency == RepeatType.QUARTERLY) {
+			return ChronoUnit.MONTHS.between(from, to) / 3;
+		} else {
+			return ChronoUnit.YEARS.between(from, to);
+		}
+	}
+
+	// an occurrence edited on its own is stored as an override, skipped by its series, that stops following the
+	// series in the given fields
+	private void materialize(int overriddenFields) {
+		if (this.archiveRow >= 0) {
+			this.calendar.restoreEvent(this);
+			return;
+		}
+		if (this.originalEvent == null) {
+			return;
+		}
+		this.overriddenFields |= overriddenFields;
+		if (this.calendar.eventIndex.containsKey(this.eventID)) {
+			return;
+		}
+		Event series = this.calendar.getEvent(this.originalEvent);
+		series.skippedOccurrences.add(this.occurrenceIndex);
+		series.editedOccurrences.add(this.occurrenceIndex);
+		this.calendar.addEvent(this);
+	}
+
+	// overrides take the series' new times in the fields they didn't move themselves, and the ones past the end
+	// of the series are dropped; the occurrences themselves are virtual and need no change
+	private void moveOverrides() {
+		HashSet<UUID> droppedEvents = new HashSet<UUID>();
+		for (int i = 0; i < this.editedOccurrences.size(); ++i) {
+			int occurrenceIndex = this.editedOccurrences.get(i);
+			Event event = this.calendar.getEvent(this.occurrenceID(occurrenceIndex));
+			LocalDateTime eventStartTime = this.occurrenceTime(this.startTime, occurrenceIndex);
+			if (eventStartTime.isAfter(this.repeatConfig.repeatUntil)) {
+				droppedEvents.add(event.eventID);
+				continue;
+			}
+			this.calendar.unscheduleEvent(event);
+			if ((event.overriddenFields & OVERRIDES_START_TIME) == 0) {
+				event.startTime = eventStartTime;
+			}
+			if ((event.overriddenFields & OVERRIDES_END_TIME) == 0) {
+				event.endTime = this.occurrenceTime(this.endTime, occurrenceIndex);
+			}
+			this.calendar.scheduleEvent(event);
+		}
+		if (!droppedEvents.isEmpty()) {
+			this.calendar.removeEvents(droppedEvents);
+			for (UUID eventID : droppedEvents) {
+				int occurrenceIndex = (int) eventID.getLeastSignificantBits();
+				this.editedOccurrences.remove(occurrenceIndex);
+				this.skippedOccurrences.remove(occurrenceIndex);
+			}
+		}
+		CalendarManager.getCalendarManager().dropOccurrenceTimers(this);
+	}
+
+	private void removeRepeatingEvents() {
+		HashSet<UUID> editedEvents = new HashSet<UUID>();
+		for (int i = 0; i < this.editedOccurrences.size(); ++i) {
+			editedEvents.add(this.occurrenceID(this.editedOccurrences.get(i)));
 		}
-		return viewers;
+		this.calendar.removeEvents(editedEvents);
+		this.editedOccurrences.clear();
+		this.skippedOccurrences.clear();
 	}
 
 	@Override
@@ -166,45 +455,7 @@ class Event implements Comparable<Event> {
 		return this.startTime.compareTo(event.startTime);
 	}
 	public String toString() {
-		return "Event ID: " + this.eventID + "\n"
-				+ "Event Title: " + this.title + "\n"
-				+ "Event Start Time: " + this.startTime + "\n"
-				+ "Event End Time: " + this.endTime + "\n"
-				+ "Calendar of the event: " + this.calendar.name + "\n"
-				+ "Viewers of the event: " + this.viewerString() + "\n"
-				+ this.repeatEventString();
-	}
-
-	private String viewerString() {
-		String viewers = "";
-		for (int i = 0; i < this.viewers.size(); ++i) {
-			if (i > 0) {
-				viewers += ", ";
-			}
-			UUID viewer = this.viewers.get(i);
-			viewers += CalendarManager.getCalendarManager().getUser(viewer).username;
-		}
-		return viewers;
-	}
-
-	private String repeatEventString() {
-		String repeatString = "";
-		if (this.repeatConfig.repeatable) {
-			repeatString += "This event repeats every ";
-			if (this.repeatConfig.repeatFrequency == RepeatType.DAILY) {
-				repeatString += "day ";
-			} else if (this.repeatConfig.repeatFrequency == RepeatType.WEEKLY) {
-				repeatString += "week ";
-			} else if (this.repeatConfig.repeatFrequency == RepeatType.MONTHLY) {
-				repeatString += "month ";
-			} else if (this.repeatConfig.repeatFrequency == RepeatType.QUARTERLY) {
-				repeatString += "quarter ";
-			} else {
-				repeatString += "year ";
-			}
-			repeatString += "until " + this.repeatConfig.repeatUntil + "\n";
-		}
-		return repeatString;
+		return Renderer.render(this);
 	}
 
 }
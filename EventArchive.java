@@ -0,0 +1,431 @@
+package calendar;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.UUID;
+
+// immutable, memory-mapped columns holding a calendar's archived events sorted by start time; each
+// archiving run writes a new generation directory and archived events are kept at second precision
+class EventArchive {
+
+	static final String DIRECTORY_PREFIX = "archive-";
+
+	private static final RepeatConfig ARCHIVED_CONFIG = new RepeatConfig(false, null, null);
+
+	File directory;
+	int size;
+	BitSet removedRows;
+	long longestEvent;
+
+	private LongBuffer startTimes;
+	private LongBuffer endTimes;
+	private LongBuffer eventIDs;
+	// the rows ordered by event ID, so an event is found by binary search
+	private IntBuffer sortedIDs;
+	private LongBuffer titleOffsets;
+	private ByteBuffer titles;
+	private ByteBuffer ownerViews;
+
+	private EventArchive(File directory) throws IOException {
+		this.directory = directory;
+		this.startTimes = map("start.col").asLongBuffer();
+		this.endTimes = map("end.col").asLongBuffer();
+		this.eventIDs = map("id.col").asLongBuffer();
+		this.titleOffsets = map("title.col").asLongBuffer();
+		this.titles = map("title.heap");
+		this.ownerViews = map("owner.col");
+		this.sortedIDs = map("sortedid.col").asIntBuffer();
+		this.size = this.startTimes.limit();
+		this.removedRows = new BitSet();
+		this.longestEvent = map("meta.col").asLongBuffer().get(0);
+	}
+
+	static EventArchive open(File directory) {
+		try {
+			return new EventArchive(directory);
+		} catch (IOException e) {
+			throw new Error("The event archive can't be opened", e);
+		}
+	}
+
+	// writes the live rows of the previous generation merged with the given events, which must be sorted by start time
+	static EventArchive build(File root, EventArchive previous, ArrayList<Event> events) {
+		File directory = new File(root, DIRECTORY_PREFIX + (latestGeneration(root) + 1));
+		if (!directory.mkdirs()) {
+			throw new Error("The event archive can't be created");
+		}
+		CalendarManager calendarManager = CalendarManager.getCalendarManager();
+		try {
+			DataOutputStream startTimes = output(directory, "start.col");
+			DataOutputStream endTimes = output(directory, "end.col");
+			DataOutputStream eventIDs = output(directory, "id.col");
+			DataOutputStream titleOffsets = output(directory, "title.col");
+			DataOutputStream titles = output(directory, "title.heap");
+			DataOutputStream ownerViews = output(directory, "owner.col");
+
+			// the IDs are kept to write the rows in ID order once they're all known
+			int rows = (previous == null ? 0 : previous.size - previous.removedRows.cardinality()) + events.size();
+			long[] ids = new long[2 * rows];
+			long longestEvent = 0;
+			int written = 0;
+			int row = 0;
+			int next = 0;
+			long titleOffset = 0;
+			byte[] title = new byte[0];
+			while (previous != null && row < previous.size || next < events.size()) {
+				if (previous != null && row < previous.size && previous.removedRows.get(row)) {
+					++row;
+					continue;
+				}
+				boolean fromPrevious = previous != null && row < previous.size && (next >= events.size()
+						|| previous.startTimes.get(row) <= events.get(next).startTime.toEpochSecond(ZoneOffset.UTC));
+				long startSecond;
+				long endSecond;
+				if (fromPrevious) {
+					startSecond = previous.startTimes.get(row);
+					endSecond = previous.endTimes.get(row);
+					ids[2 * written] = previous.eventIDs.get(2 * row);
+					ids[2 * written + 1] = previous.eventIDs.get(2 * row + 1);
+					title = previous.readTitle(row, title);
+					titles.write(title, 0, previous.titleLength(row));
+					titleOffsets.writeLong(titleOffset);
+					titleOffset += previous.titleLength(row);
+					ownerViews.writeByte(previous.ownerViews.get(row));
+					++row;
+				} else {
+					Event event = events.get(next);
+					startSecond = event.startTime.toEpochSecond(ZoneOffset.UTC);
+					endSecond = event.endTime.toEpochSecond(ZoneOffset.UTC);
+					ids[2 * written] = event.eventID.getMostSignificantBits();
+					ids[2 * written + 1] = event.eventID.getLeastSignificantBits();
+					byte[] bytes = event.title.getBytes(StandardCharsets.UTF_8);
+					titles.write(bytes);
+					titleOffsets.writeLong(titleOffset);
+					titleOffset += bytes.length;
+					ownerViews.writeByte(event.hasViewer(calendarManager.getUser(event.calendar.owner).handle) ? 1 : 0);
+					++next;
+				}
+				startTimes.writeLong(startSecond);
+				endTimes.writeLong(endSecond);
+				eventIDs.writeLong(ids[2 * written]);
+				eventIDs.writeLong(ids[2 * written + 1]);
+				longestEvent = Math.max(longestEvent, endSecond - startSecond);
+				++written;
+			}
+			// the end of the last title
+			titleOffsets.writeLong(titleOffset);
+
+			int[] order = new int[written];
+			for (int i = 0; i < written; ++i) {
+				order[i] = i;
+			}
+			order = sortByID(order, ids);
+			DataOutputStream sortedIDs = output(directory, "sortedid.col");
+			for (int i = 0; i < written; ++i) {
+				sortedIDs.writeInt(order[i]);
+			}
+			// the longest archived event in seconds, so opening the archive doesn't go through every row
+			DataOutputStream meta = output(directory, "meta.col");
+			meta.writeLong(longestEvent);
+
+			startTimes.close();
+			endTimes.close();
+			eventIDs.close();
+			titleOffsets.close();
+			titles.close();
+			ownerViews.close();
+			sortedIDs.close();
+			meta.close();
+			sync(directory);
+		} catch (IOException e) {
+			throw new Error("The event archive can't be written", e);
+		}
+		return open(directory);
+	}
+
+	static long latestGeneration(File root) {
+		long latest = 0;
+		String[] names = root.list();
+		for (int i = 0; names != null && i < names.length; ++i) {
+			if (names[i].startsWith(DIRECTORY_PREFIX)) {
+				latest = Math.max(latest, Long.parseLong(names[i].substring(DIRECTORY_PREFIX.length())));
+			}
+		}
+		return latest;
+	}
+
+	static void delete(File directory) {
+		File[] files = directory.listFiles();
+		for (int i = 0; files != null && i < files.length; ++i) {
+			files[i].delete();
+		}
+		directory.delete();
+	}
+
+	int countEvents(LocalDateTime from, LocalDateTime to) {
+		int count = 0;
+		long fromSecond = from == null ? Long.MIN_VALUE : from.toEpochSecond(ZoneOffset.UTC);
+		int end = this.endRow(to);
+		for (int row = this.startRow(from); row < end; ++row) {
+			if (!this.removedRows.get(row) && this.endTimes.get(row) >= fromSecond) {
+				++count;
+			}
+		}
+		return count;
+	}
+
+	// the rows getEvents goes through for [from, to), found by binary search without reading them; removed rows
+	// and rows ending before from are counted too
+	int countRows(LocalDateTime from, LocalDateTime to) {
+		return Math.max(0, this.endRow(to) - this.startRow(from));
+	}
+
+	// returns the archived events overlapping [from, to), null meaning unbounded
+	ArrayList<Event> getEvents(Calendar calendar, LocalDateTime from, LocalDateTime to) {
+		ArrayList<Event> events = new ArrayList<Event>();
+		long fromSecond = from == null ? Long.MIN_VALUE : from.toEpochSecond(ZoneOffset.UTC);
+		int end = this.endRow(to);
+		for (int row = this.startRow(from); row < end; ++row) {
+			if (!this.removedRows.get(row) && this.endTimes.get(row) >= fromSecond) {
+				events.add(this.readEvent(calendar, row));
+			}
+		}
+		return events;
+	}
+
+	// returns the start of the first archived event starting at or after the given time, null meaning from the
+	// start; returns null if there's none
+	LocalDateTime nextStartTime(LocalDateTime from) {
+		int row = from == null ? 0 : this.lowerBound(from.toEpochSecond(ZoneOffset.UTC));
+		while (row < this.size && this.removedRows.get(row)) {
+			++row;
+		}
+		return row < this.size ? LocalDateTime.ofEpochSecond(this.startTimes.get(row), 0, ZoneOffset.UTC) : null;
+	}
+
+	// returns null if there's no such event
+	Event getEvent(Calendar calendar, UUID eventID) {
+		long mostSigBits = eventID.getMostSignificantBits();
+		long leastSigBits = eventID.getLeastSignificantBits();
+		int low = 0;
+		int high = this.size;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (this.compareID(this.sortedIDs.get(middle), mostSigBits, leastSigBits) < 0) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		if (low == this.size || this.compareID(this.sortedIDs.get(low), mostSigBits, leastSigBits) != 0) {
+			return null;
+		}
+		int row = this.sortedIDs.get(low);
+		return this.removedRows.get(row) ? null : this.readEvent(calendar, row);
+	}
+
+	// returns the event stored in the row, or null if it was removed
+	Event getEventAt(Calendar calendar, int row) {
+		return this.removedRows.get(row) ? null : this.readEvent(calendar, row);
+	}
+
+	// the first row that can overlap a window starting at from and doesn't start before the given time, null
+	// meaning unbounded
+	int firstRow(LocalDateTime from, LocalDateTime startingFrom) {
+		int row = this.startRow(from);
+		if (startingFrom != null) {
+			row = Math.max(row, this.lowerBound(startingFrom.toEpochSecond(ZoneOffset.UTC)));
+		}
+		return row;
+	}
+
+	// adds the events overlapping [from, to) among the rows from the given one that start at its second, and
+	// returns the row after them; returns size once the rows start at or after to
+	int readRun(Calendar calendar, int row, LocalDateTime from, LocalDateTime to, ArrayList<Event> events) {
+		int end = this.endRow(to);
+		if (row >= end) {
+			return this.size;
+		}
+		long fromSecond = from == null ? Long.MIN_VALUE : from.toEpochSecond(ZoneOffset.UTC);
+		long startSecond = this.startTimes.get(row);
+		for (; row < end && this.startTimes.get(row) == startSecond; ++row) {
+			if (!this.removedRows.get(row) && this.endTimes.get(row) >= fromSecond) {
+				events.add(this.readEvent(calendar, row));
+			}
+		}
+		return row;
+	}
+
+	// every term must match a word of the title, the last one may also match as a prefix
+	ArrayList<Event> search(Calendar calendar, ArrayList<String> terms) {
+		ArrayList<Event> events = new ArrayList<Event>();
+		this.search(calendar, terms, 0, Integer.MAX_VALUE, events);
+		return events;
+	}
+
+	// adds up to limit matches from the given row on and returns the row to go on from, size if there are none left
+	int search(Calendar calendar, ArrayList<String> terms, int row, int limit, ArrayList<Event> events) {
+		byte[] title = new byte[0];
+		for (; row < this.size && limit > 0; ++row) {
+			if (this.removedRows.get(row)) {
+				continue;
+			}
+			title = this.readTitle(row, title);
+			ArrayList<String> tokens = SearchIndex.tokenize(new String(title, 0, this.titleLength(row), StandardCharsets.UTF_8));
+			boolean matchesAll = true;
+			for (int i = 0; i < terms.size() && matchesAll; ++i) {
+				matchesAll = i < terms.size() - 1 ? tokens.contains(terms.get(i)) : hasPrefix(tokens, terms.get(i));
+			}
+			if (matchesAll) {
+				events.add(this.readEvent(calendar, row));
+				--limit;
+			}
+		}
+		return row;
+	}
+
+	private Event readEvent(Calendar calendar, int row) {
+		byte[] title = this.readTitle(row, new byte[this.titleLength(row)]);
+		int[] viewers = this.ownerViews.get(row) != 0
+				? new int[] { CalendarManager.getCalendarManager().getUser(calendar.owner).handle } : new int[0];
+		Event event = new Event(new String(title, StandardCharsets.UTF_8), calendar, viewers,
+				LocalDateTime.ofEpochSecond(this.startTimes.get(row), 0, ZoneOffset.UTC),
+				LocalDateTime.ofEpochSecond(this.endTimes.get(row), 0, ZoneOffset.UTC), ARCHIVED_CONFIG, null);
+		event.eventID = new UUID(this.eventIDs.get(2 * row), this.eventIDs.get(2 * row + 1));
+		event.archiveRow = row;
+		return event;
+	}
+
+	private byte[] readTitle(int row, byte[] buffer) {
+		int length = this.titleLength(row);
+		if (buffer.length < length) {
+			buffer = new byte[length];
+		}
+		ByteBuffer titles = this.titles.duplicate();
+		titles.position((int) this.titleOffsets.get(row));
+		titles.get(buffer, 0, length);
+		return buffer;
+	}
+
+	private int titleLength(int row) {
+		return (int) (this.titleOffsets.get(row + 1) - this.titleOffsets.get(row));
+	}
+
+	// first row that can overlap a window starting at from
+	private int startRow(LocalDateTime from) {
+		if (from == null) {
+			return 0;
+		}
+		return this.lowerBound(from.toEpochSecond(ZoneOffset.UTC) - this.longestEvent);
+	}
+
+	// first row starting at or after to
+	private int endRow(LocalDateTime to) {
+		if (to == null) {
+			return this.size;
+		}
+		return this.lowerBound(to.toEpochSecond(ZoneOffset.UTC));
+	}
+
+	// orders the row's event ID against the given one the way UUID.compareTo does
+	private int compareID(int row, long mostSigBits, long leastSigBits) {
+		int comparison = Long.compare(this.eventIDs.get(2 * row), mostSigBits);
+		return comparison != 0 ? comparison : Long.compare(this.eventIDs.get(2 * row + 1), leastSigBits);
+	}
+
+	private int lowerBound(long second) {
+		int low = 0;
+		int high = this.size;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (this.startTimes.get(middle) < second) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	private MappedByteBuffer map(String name) throws IOException {
+		FileChannel channel = FileChannel.open(new File(this.directory, name).toPath(), StandardOpenOption.READ);
+		try {
+			return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		} finally {
+			channel.close();
+		}
+	}
+
+	// sorts the rows by event ID, ids holding the two halves of each row's ID in turn; a merge sort over ints, so a
+	// large archive doesn't take an object per row
+	private static int[] sortByID(int[] rows, long[] ids) {
+		int[] buffer = new int[rows.length];
+		for (int width = 1; width < rows.length; width *= 2) {
+			for (int start = 0; start < rows.length; start += 2 * width) {
+				int middle = Math.min(start + width, rows.length);
+				int end = Math.min(start + 2 * width, rows.length);
+				int i = start;
+				int j = middle;
+				int k = start;
+				while (i < middle && j < end) {
+					buffer[k++] = compareIDs(ids, rows[j], rows[i]) < 0 ? rows[j++] : rows[i++];
+				}
+				while (i < middle) {
+					buffer[k++] = rows[i++];
+				}
+				while (j < end) {
+					buffer[k++] = rows[j++];
+				}
+			}
+			int[] merged = buffer;
+			buffer = rows;
+			rows = merged;
+		}
+		return rows;
+	}
+
+	private static int compareIDs(long[] ids, int row, int otherRow) {
+		int comparison = Long.compare(ids[2 * row], ids[2 * otherRow]);
+		return comparison != 0 ? comparison : Long.compare(ids[2 * row + 1], ids[2 * otherRow + 1]);
+	}
+
+	private static boolean hasPrefix(ArrayList<String> tokens, String prefix) {
+		for (int i = 0; i < tokens.size(); ++i) {
+			if (tokens.get(i).startsWith(prefix)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static DataOutputStream output(File directory, String name) throws IOException {
+		return new DataOutputStream(new BufferedOutputStream(new FileOutputStream(new File(directory, name)), 1 << 16));
+	}
+
+	private static void sync(File directory) throws IOException {
+		File[] files = directory.listFiles();
+		for (int i = 0; files != null && i < files.length; ++i) {
+			FileChannel channel = FileChannel.open(files[i].toPath(), StandardOpenOption.WRITE);
+			try {
+				channel.force(true);
+			} finally {
+				channel.close();
+			}
+		}
+	}
+
+}
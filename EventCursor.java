@@ -0,0 +1,187 @@
+package calendar;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.PriorityQueue;
+import java.util.UUID;
+
+// walks the visible events overlapping [from, to) in start time order, events starting together in ID order,
+// resuming after a given event; each calendar's timeline and archive and each series is read lazily and merged
+// through a heap, so taking n events builds about n occurrences whatever the size of the result. The caller
+// holds the read lock while using it
+class EventCursor {
+
+	// start time, then ID, so every event has one position to resume from
+	static final Comparator<Event> ORDER = new Comparator<Event>() {
+		public int compare(Event first, Event second) {
+			int order = first.startTime.compareTo(second.startTime);
+			return order != 0 ? order : first.eventID.compareTo(second.eventID);
+		}
+	};
+
+	private static final Comparator<Source> SOURCE_ORDER = new Comparator<Source>() {
+		public int compare(Source first, Source second) {
+			return ORDER.compare(first.current(), second.current());
+		}
+	};
+
+	// the events of one source in order, a run of the events starting at one time at a time
+	private abstract static class Source {
+
+		ArrayList<Event> run = new ArrayList<Event>();
+		int position;
+
+		Event current() {
+			return this.run.get(this.position);
+		}
+
+		// fills the run with the next events starting together, returns false if there are none
+		abstract boolean fill();
+
+		boolean advance() {
+			if (++this.position < this.run.size()) {
+				return true;
+			}
+			this.run.clear();
+			this.position = 0;
+			while (this.run.isEmpty()) {
+				if (!this.fill()) {
+					return false;
+				}
+			}
+			if (this.run.size() > 1) {
+				Collections.sort(this.run, ORDER);
+			}
+			return true;
+		}
+
+	}
+
+	private PriorityQueue<Source> sources;
+	private LocalDateTime afterTime;
+	private UUID afterID;
+
+	// after is the position to resume after, null meaning from the start
+	EventCursor(LocalDateTime afterTime, UUID afterID) {
+		this.sources = new PriorityQueue<Source>(16, SOURCE_ORDER);
+		this.afterTime = afterTime;
+		this.afterID = afterID;
+	}
+
+	void addCalendar(final Calendar calendar, final LocalDateTime from, final LocalDateTime to) {
+		// events starting before the window can only overlap it if they last long enough
+		LocalDateTime windowStart = from == null ? null : from.minus(calendar.longestEvent);
+		if (this.afterTime != null && (windowStart == null || this.afterTime.isAfter(windowStart))) {
+			windowStart = this.afterTime;
+		}
+		NavigableMap<LocalDateTime, ArrayList<Event>> window = calendar.timeline;
+		if (windowStart != null) {
+			window = window.tailMap(windowStart, true);
+		}
+		if (to != null) {
+			window = window.headMap(to, false);
+		}
+		final Iterator<Map.Entry<LocalDateTime, ArrayList<Event>>> entries = window.entrySet().iterator();
+		this.add(new Source() {
+			boolean fill() {
+				if (!entries.hasNext()) {
+					return false;
+				}
+				ArrayList<Event> startingEvents = entries.next().getValue();
+				for (int i = 0; i < startingEvents.size(); ++i) {
+					Event event = startingEvents.get(i);
+					if (from == null || !event.endTime.isBefore(from)) {
+						this.run.add(event);
+					}
+				}
+				return true;
+			}
+		});
+
+		for (int i = 0; i < calendar.seriesList.size(); ++i) {
+			this.addEvent(calendar.seriesList.get(i), from, to);
+		}
+
+		if (calendar.archive != null) {
+			final EventArchive archive = calendar.archive;
+			this.add(new Source() {
+				int row = archive.firstRow(from, EventCursor.this.afterTime);
+
+				boolean fill() {
+					if (this.row >= archive.size) {
+						return false;
+					}
+					this.row = archive.readRun(calendar, this.row, from, to, this.run);
+					return true;
+				}
+			});
+		}
+	}
+
+	// a single event or the occurrences of a series
+	void addEvent(final Event event, final LocalDateTime from, final LocalDateTime to) {
+		if (!event.repeatConfig.repeatable) {
+			if ((from == null || !event.endTime.isBefore(from)) && (to == null || event.startTime.isBefore(to))) {
+				this.add(new Source() {
+					boolean filled;
+
+					boolean fill() {
+						if (this.filled) {
+							return false;
+						}
+						this.filled = true;
+						this.run.add(event);
+						return true;
+					}
+				});
+			}
+			return;
+		}
+		this.add(new Source() {
+			int occurrenceIndex = event.firstOccurrenceIndex(from, EventCursor.this.afterTime);
+
+			boolean fill() {
+				LocalDateTime startTime = event.occurrenceTime(event.startTime, this.occurrenceIndex);
+				if (startTime.isAfter(event.repeatConfig.repeatUntil) || to != null && !startTime.isBefore(to)) {
+					return false;
+				}
+				int occurrenceIndex = this.occurrenceIndex++;
+				if ((from == null || !event.occurrenceTime(event.endTime, occurrenceIndex).isBefore(from))
+						&& !event.skippedOccurrences.contains(occurrenceIndex)) {
+					this.run.add(occurrenceIndex == 0 ? event : event.getOccurrence(occurrenceIndex));
+				}
+				return true;
+			}
+		});
+	}
+
+	private void add(Source source) {
+		// the source starts before its first run
+		source.position = -1;
+		if (source.advance()) {
+			this.sources.add(source);
+		}
+	}
+
+	// returns the next event after the resume position, or null if there are no more
+	Event next() {
+		while (!this.sources.isEmpty()) {
+			Source source = this.sources.poll();
+			Event event = source.current();
+			if (source.advance()) {
+				this.sources.add(source);
+			}
+			if (this.afterTime == null || event.startTime.isAfter(this.afterTime)
+					|| event.startTime.equals(this.afterTime) && event.eventID.compareTo(this.afterID) > 0) {
+				return event;
+			}
+		}
+		return null;
+	}
+
+}
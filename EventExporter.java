@@ -0,0 +1,376 @@
+package calendar;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.UUID;
+import java.util.concurrent.locks.Lock;
+
+// writes a calendar's or a user's events to a channel as iCalendar (RFC 5545) or CSV; a chunk of events at a time
+// is formatted under the read lock and written out once it's released, and series are written once with their
+// rule instead of as occurrences
+class EventExporter {
+
+	enum Format {
+
+		ICS, CSV;
+
+	}
+
+	static final int CHUNK_SIZE = 1024;
+
+	private static final int BUFFER_SIZE = 1 << 16;
+	// iCalendar content lines are folded before they grow longer than this many octets
+	private static final int LINE_OCTETS = 75;
+
+	private WritableByteChannel channel;
+	private Format format;
+	private CalendarManager calendarManager;
+	private StringBuilder text;
+	private CharsetEncoder encoder;
+	private ByteBuffer bytes;
+	private int lineOctets;
+	private LocalDateTime exportTime;
+	private int exportedEvents;
+
+	EventExporter(WritableByteChannel channel, Format format) {
+		this.channel = channel;
+		this.format = format;
+		this.calendarManager = CalendarManager.getCalendarManager();
+		this.text = new StringBuilder(BUFFER_SIZE);
+		this.encoder = StandardCharsets.UTF_8.newEncoder();
+		this.bytes = ByteBuffer.allocate(BUFFER_SIZE);
+		this.exportTime = LocalDateTime.now(ZoneOffset.UTC).withNano(0);
+	}
+
+	static int exportCalendar(Calendar calendar, WritableByteChannel channel, Format format) {
+		EventExporter exporter = new EventExporter(channel, format);
+		exporter.begin(calendar.name);
+		exporter.writeCalendar(calendar);
+		exporter.end();
+		return exporter.exportedEvents;
+	}
+
+	// the user's own calendars followed by the events shared with them
+	static int exportUser(UUID userID, WritableByteChannel channel, Format format) {
+		EventExporter exporter = new EventExporter(channel, format);
+		exporter.begin(exporter.calendarManager.getUser(userID).username);
+		ArrayList<Calendar> calendars = exporter.calendarManager.getCalendars(userID, false);
+		for (int i = 0; i < calendars.size(); ++i) {
+			exporter.writeCalendar(calendars.get(i));
+		}
+		Lock lock = exporter.calendarManager.readLock();
+		ArrayList<Event> sharedEvents;
+		lock.lock();
+		try {
+			sharedEvents = exporter.calendarManager.visibilityIndex.getSharedEvents(userID);
+		} finally {
+			lock.unlock();
+		}
+		// written a chunk at a time like a calendar's events, leaving out the ones removed in between
+		for (int start = 0; start < sharedEvents.size(); start += CHUNK_SIZE) {
+			lock.lock();
+			try {
+				for (int i = start; i < sharedEvents.size() && i < start + CHUNK_SIZE; ++i) {
+					Event event = sharedEvents.get(i);
+					if (exporter.calendarManager.eventIndex.get(event.eventID) == event) {
+						exporter.writeEvent(event);
+					}
+				}
+			} finally {
+				lock.unlock();
+			}
+			exporter.flush(false);
+		}
+		exporter.end();
+		return exporter.exportedEvents;
+	}
+
+	private void writeCalendar(Calendar calendar) {
+		Lock lock = this.calendarManager.readLock();
+
+		// single events and edited occurrences, in start time order
+		LocalDateTime lastStartTime = null;
+		int chunkEvents = CHUNK_SIZE;
+		while (chunkEvents > 0) {
+			chunkEvents = 0;
+			lock.lock();
+			try {
+				NavigableMap<LocalDateTime, ArrayList<Event>> window = lastStartTime == null ? calendar.timeline
+						: calendar.timeline.tailMap(lastStartTime, false);
+				for (Map.Entry<LocalDateTime, ArrayList<Event>> entry : window.entrySet()) {
+					if (chunkEvents >= CHUNK_SIZE) {
+						break;
+					}
+					ArrayList<Event> startingEvents = entry.getValue();
+					for (int i = 0; i < startingEvents.size(); ++i) {
+						this.writeEvent(startingEvents.get(i));
+					}
+					chunkEvents += startingEvents.size();
+					lastStartTime = entry.getKey();
+				}
+			} finally {
+				lock.unlock();
+			}
+			this.flush(false);
+		}
+
+		for (int start = 0; true; start += CHUNK_SIZE) {
+			lock.lock();
+			try {
+				if (start >= calendar.seriesList.size()) {
+					break;
+				}
+				for (int i = start; i < calendar.seriesList.size() && i < start + CHUNK_SIZE; ++i) {
+					this.writeEvent(calendar.seriesList.get(i));
+				}
+			} finally {
+				lock.unlock();
+			}
+			this.flush(false);
+		}
+
+		// archived rows never change, only their removal is read under the lock
+		EventArchive archive = calendar.archive;
+		for (int start = 0; archive != null && start < archive.size; start += CHUNK_SIZE) {
+			lock.lock();
+			try {
+				for (int row = start; row < archive.size && row < start + CHUNK_SIZE; ++row) {
+					Event event = archive.getEventAt(calendar, row);
+					if (event != null) {
+						this.writeEvent(event);
+					}
+				}
+			} finally {
+				lock.unlock();
+			}
+			this.flush(false);
+		}
+	}
+
+	private void writeEvent(Event event) {
+		if (this.format == Format.ICS) {
+			this.writeIcsEvent(event);
+		} else {
+			this.writeCsvEvent(event);
+		}
+		++this.exportedEvents;
+	}
+
+	private void begin(String name) {
+		if (this.format == Format.ICS) {
+			this.line("BEGIN:VCALENDAR");
+			this.line("VERSION:2.0");
+			this.line("PRODID:-//Calendars//Calendars//EN");
+			this.property("X-WR-CALNAME:").escaped(name).endLine();
+		} else {
+			this.text.append("event_id,title,calendar,start,end,repeat,repeat_until,original_event\r\n");
+		}
+	}
+
+	private void end() {
+		if (this.format == Format.ICS) {
+			this.line("END:VCALENDAR");
+		}
+		this.flush(true);
+	}
+
+	private void writeIcsEvent(Event event) {
+		this.line("BEGIN:VEVENT");
+		if (event.originalEvent == null) {
+			this.property("UID:").append(event.eventID.toString()).endLine();
+		} else {
+			// an edited occurrence overrides the occurrence of its series it was created from
+			this.property("UID:").append(event.originalEvent.toString()).endLine();
+			Event series = this.calendarManager.eventIndex.get(event.originalEvent);
+			if (series != null && series.repeatConfig.repeatable) {
+				LocalDateTime occurrenceTime = Event.occurrenceTime(series.repeatConfig.repeatFrequency, series.startTime,
+						event.occurrenceIndex);
+				this.property("RECURRENCE-ID:").time(occurrenceTime).endLine();
+			}
+		}
+		this.property("DTSTAMP:").time(this.exportTime).endLine();
+		this.property("DTSTART:").time(event.startTime).endLine();
+		this.property("DTEND:").time(event.endTime).endLine();
+		this.property("SUMMARY:").escaped(event.title).endLine();
+		if (event.repeatConfig.repeatable) {
+			this.property("RRULE:FREQ=").append(ruleFrequency(event.repeatConfig.repeatFrequency)).append(";UNTIL=")
+					.time(event.repeatConfig.repeatUntil).endLine();
+			this.writeExceptionDates(event);
+		}
+		this.line("END:VEVENT");
+	}
+
+	// occurrences that were deleted, as opposed to edited on their own, are excluded from the rule
+	private void writeExceptionDates(Event series) {
+		for (int i = 0; i < series.skippedOccurrences.size(); ++i) {
+			int occurrenceIndex = series.skippedOccurrences.get(i);
+			if (!series.editedOccurrences.contains(occurrenceIndex)) {
+				this.property("EXDATE:").time(Event.occurrenceTime(series.repeatConfig.repeatFrequency, series.startTime,
+						occurrenceIndex)).endLine();
+			}
+		}
+	}
+
+	private void writeCsvEvent(Event event) {
+		this.text.append(event.eventID).append(',');
+		this.csvField(event.title).text.append(',');
+		this.csvField(event.calendar.name).text.append(',');
+		this.isoTime(event.startTime).text.append(',');
+		this.isoTime(event.endTime).text.append(',');
+		if (event.repeatConfig.repeatable) {
+			this.text.append(event.repeatConfig.repeatFrequency).append(',');
+			this.isoTime(event.repeatConfig.repeatUntil);
+		} else {
+			this.text.append(',');
+		}
+		this.text.append(',');
+		if (event.originalEvent != null) {
+			this.text.append(event.originalEvent);
+		}
+		this.text.append("\r\n");
+	}
+
+	private static String ruleFrequency(RepeatType repeatFrequency) {
+		if (repeatFrequency == RepeatType.DAILY) {
+			return "DAILY";
+		} else if (repeatFrequency == RepeatType.WEEKLY) {
+			return "WEEKLY";
+		} else if (repeatFrequency == RepeatType.MONTHLY) {
+			return "MONTHLY";
+		} else if (repeatFrequency == RepeatType.QUARTERLY) {
+			return "MONTHLY;INTERVAL=3";
+		} else {
+			return "YEARLY";
+		}
+	}
+
+	private void line(String line) {
+		this.text.append(line).append("\r\n");
+	}
+
+	private EventExporter property(String name) {
+		this.text.append(name);
+		this.lineOctets = name.length();
+		return this;
+	}
+
+	private void endLine() {
+		this.text.append("\r\n");
+	}
+
+	private EventExporter append(String value) {
+		for (int i = 0; i < value.length(); ++i) {
+			this.append(value.charAt(i));
+		}
+		return this;
+	}
+
+	// appends to the current content line, folding it where it would grow too long
+	private void append(char c) {
+		// a surrogate pair takes four octets and must stay on one line
+		int octets = c < 0x80 ? 1 : c < 0x800 ? 2 : Character.isHighSurrogate(c) ? 4 : Character.isLowSurrogate(c) ? 0 : 3;
+		if (this.lineOctets + octets > LINE_OCTETS) {
+			this.text.append("\r\n ");
+			this.lineOctets = 1;
+		}
+		this.text.append(c);
+		this.lineOctets += octets;
+	}
+
+	private EventExporter escaped(String value) {
+		for (int i = 0; i < value.length(); ++i) {
+			char c = value.charAt(i);
+			if (c == '\\' || c == ';' || c == ',') {
+				this.append('\\');
+				this.append(c);
+			} else if (c == '\n') {
+				this.append('\\');
+				this.append('n');
+			} else {
+				this.append(c);
+			}
+		}
+		return this;
+	}
+
+	private EventExporter time(LocalDateTime time) {
+		this.digits(time.getYear(), 4).digits(time.getMonthValue(), 2).digits(time.getDayOfMonth(), 2);
+		this.text.append('T');
+		this.digits(time.getHour(), 2).digits(time.getMinute(), 2).digits(time.getSecond(), 2);
+		this.text.append('Z');
+		this.lineOctets += 16;
+		return this;
+	}
+
+	private EventExporter isoTime(LocalDateTime time) {
+		this.digits(time.getYear(), 4).text.append('-');
+		this.digits(time.getMonthValue(), 2).text.append('-');
+		this.digits(time.getDayOfMonth(), 2).text.append('T');
+		this.digits(time.getHour(), 2).text.append(':');
+		this.digits(time.getMinute(), 2).text.append(':');
+		this.digits(time.getSecond(), 2).text.append('Z');
+		return this;
+	}
+
+	private EventExporter digits(int value, int width) {
+		for (int divisor = width == 4 ? 1000 : 10; divisor > 0; divisor /= 10) {
+			this.text.append((char) ('0' + value / divisor % 10));
+		}
+		return this;
+	}
+
+	private EventExporter csvField(String value) {
+		if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+			this.text.append(value);
+			return this;
+		}
+		this.text.append('"');
+		for (int i = 0; i < value.length(); ++i) {
+			char c = value.charAt(i);
+			if (c == '"') {
+				this.text.append('"');
+			}
+			this.text.append(c);
+		}
+		this.text.append('"');
+		return this;
+	}
+
+	// encodes the formatted events and writes them out
+	private void flush(boolean endOfInput) {
+		try {
+			CharBuffer chars = CharBuffer.wrap(this.text);
+			while (true) {
+				CoderResult result = this.encoder.encode(chars, this.bytes, endOfInput);
+				if (result.isError()) {
+					result.throwException();
+				}
+				if (endOfInput && !result.isOverflow()) {
+					this.encoder.flush(this.bytes);
+				}
+				this.bytes.flip();
+				while (this.bytes.hasRemaining()) {
+					this.channel.write(this.bytes);
+				}
+				this.bytes.clear();
+				if (!result.isOverflow()) {
+					break;
+				}
+			}
+			this.text.delete(0, this.text.length() - chars.remaining());
+		} catch (IOException e) {
+			throw new Error("The events can't be exported", e);
+		}
+	}
+
+}
@@ -0,0 +1,440 @@
+package calendar;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.time.DateTimeException;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+// reads the VEVENTs of an iCalendar (RFC 5545) stream one at a time and adds them to a calendar in batches;
+// recurrence rules map onto RepeatConfig where a RepeatType can express them, anything else keeps its first
+// occurrence only; VEVENTs with a RECURRENCE-ID edit or cancel one occurrence of a series once every series is in
+class IcsImporter {
+
+	// a VEVENT changing one occurrence of the series with the same UID
+	private static class OccurrenceOverride {
+
+		String uid;
+		LocalDateTime recurrenceID;
+		String title;
+		LocalDateTime startTime;
+		LocalDateTime endTime;
+		boolean cancelled;
+
+	}
+
+	static final int BATCH_SIZE = 4096;
+
+	// a rule without an end repeats for this long
+	private static final int OPEN_ENDED_YEARS = 100;
+
+	private Calendar calendar;
+	private CalendarManager calendarManager;
+	private ArrayList<Event> batch;
+	// every imported event is seen by the calendar's owner alone, and events may share their viewer array
+	private int[] viewers;
+	private int importedEvents;
+	private int skippedEvents;
+	private HashMap<String, Event> seriesByUID;
+	private ArrayList<OccurrenceOverride> overrides;
+
+	// the VEVENT being read
+	private int depth;
+	private int eventDepth;
+	private String title;
+	private LocalDateTime startTime;
+	private boolean allDay;
+	private LocalDateTime endTime;
+	private Duration duration;
+	private String rule;
+	private ArrayList<LocalDateTime> exceptionDates;
+	private String uid;
+	private LocalDateTime recurrenceID;
+	private boolean cancelled;
+
+	IcsImporter(Calendar calendar) {
+		this.calendar = calendar;
+		this.calendarManager = CalendarManager.getCalendarManager();
+		this.batch = new ArrayList<Event>(BATCH_SIZE);
+		this.viewers = new int[] { this.calendarManager.getUser(calendar.owner).handle };
+		this.exceptionDates = new ArrayList<LocalDateTime>();
+		this.seriesByUID = new HashMap<String, Event>();
+		this.overrides = new ArrayList<OccurrenceOverride>();
+		this.eventDepth = -1;
+	}
+
+	// returns the importer once the file is read, for its counts
+	static IcsImporter importEvents(File file, Calendar calendar) {
+		try {
+			Reader reader = new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8);
+			try {
+				IcsImporter importer = new IcsImporter(calendar);
+				importer.read(reader);
+				return importer;
+			} finally {
+				reader.close();
+			}
+		} catch (IOException e) {
+			throw new Error("The iCalendar file can't be read", e);
+		}
+	}
+
+	// returns the number of events added and occurrences edited or cancelled; cancelled events and overrides
+	// whose series isn't in the stream are skipped
+	int read(Reader reader) throws IOException {
+		BufferedReader in = new BufferedReader(reader, 1 << 16);
+		StringBuilder line = new StringBuilder();
+		String next = in.readLine();
+		while (next != null) {
+			line.setLength(0);
+			line.append(next);
+			// long content lines are folded onto lines starting with a space or a tab
+			next = in.readLine();
+			while (next != null && next.length() > 0 && (next.charAt(0) == ' ' || next.charAt(0) == '\t')) {
+				line.append(next, 1, next.length());
+				next = in.readLine();
+			}
+			this.readLine(line);
+		}
+		this.flush();
+		this.applyOverrides();
+		return this.importedEvents;
+	}
+
+	int getImportedEvents() {
+		return this.importedEvents;
+	}
+
+	// cancelled events and overrides whose series isn't in the stream
+	int getSkippedEvents() {
+		return this.skippedEvents;
+	}
+
+	private void readLine(StringBuilder line) {
+		int nameEnd = 0;
+		while (nameEnd < line.length() && line.charAt(nameEnd) != ';' && line.charAt(nameEnd) != ':') {
+			++nameEnd;
+		}
+		int valueStart = nameEnd;
+		boolean quoted = false;
+		while (valueStart < line.length() && (quoted || line.charAt(valueStart) != ':')) {
+			if (line.charAt(valueStart) == '"') {
+				quoted = !quoted;
+			}
+			++valueStart;
+		}
+		if (valueStart >= line.length()) {
+			return;
+		}
+		String name = line.substring(0, nameEnd).toUpperCase();
+		String parameters = line.substring(nameEnd, valueStart);
+		String value = line.substring(valueStart + 1);
+
+		if (name.equals("BEGIN")) {
+			++this.depth;
+			if (value.equalsIgnoreCase("VEVENT") && this.eventDepth < 0) {
+				this.beginEvent();
+			}
+			return;
+		}
+		if (name.equals("END")) {
+			if (this.depth == this.eventDepth) {
+				this.endEvent();
+			}
+			--this.depth;
+			return;
+		}
+		// properties of components nested in the event, like alarms, don't describe the event
+		if (this.depth != this.eventDepth) {
+			return;
+		}
+
+		if (name.equals("UID")) {
+			this.uid = value;
+		} else if (name.equals("SUMMARY")) {
+			this.title = unescape(value);
+		} else if (name.equals("DTSTART")) {
+			this.allDay = isDate(parameters, value);
+			this.startTime = this.parseTime(parameters, value);
+		} else if (name.equals("DTEND")) {
+			this.endTime = this.parseTime(parameters, value);
+		} else if (name.equals("DURATION")) {
+			this.duration = parseDuration(value);
+		} else if (name.equals("RRULE")) {
+			this.rule = value.toUpperCase();
+		} else if (name.equals("EXDATE")) {
+			int start = 0;
+			for (int end = value.indexOf(','); start <= value.length(); end = value.indexOf(',', start)) {
+				end = end < 0 ? value.length() : end;
+				this.exceptionDates.add(this.parseTime(parameters, value.substring(start, end)));
+				start = end + 1;
+			}
+		} else if (name.equals("RECURRENCE-ID")) {
+			this.recurrenceID = this.parseTime(parameters, value);
+		} else if (name.equals("STATUS") && value.equalsIgnoreCase("CANCELLED")) {
+			this.cancelled = true;
+		}
+	}
+
+	private void beginEvent() {
+		this.eventDepth = this.depth;
+		this.title = null;
+		this.startTime = null;
+		this.allDay = false;
+		this.endTime = null;
+		this.duration = null;
+		this.rule = null;
+		this.exceptionDates.clear();
+		this.uid = null;
+		this.recurrenceID = null;
+		this.cancelled = false;
+	}
+
+	private void endEvent() {
+		this.eventDepth = -1;
+		if (this.recurrenceID != null && this.startTime == null) {
+			this.startTime = this.recurrenceID;
+		}
+		if (this.startTime == null || this.cancelled && this.recurrenceID == null) {
+			++this.skippedEvents;
+			return;
+		}
+		if (this.endTime == null) {
+			if (this.duration != null) {
+				this.endTime = this.startTime.plus(this.duration);
+			} else {
+				this.endTime = this.allDay ? this.startTime.plusDays(1) : this.startTime;
+			}
+		}
+
+		if (this.recurrenceID != null) {
+			OccurrenceOverride override = new OccurrenceOverride();
+			override.uid = this.uid;
+			override.recurrenceID = this.recurrenceID;
+			override.title = this.title;
+			override.startTime = this.startTime;
+			override.endTime = this.endTime;
+			override.cancelled = this.cancelled;
+			this.overrides.add(override);
+			return;
+		}
+
+		RepeatConfig repeatConfig = this.parseRule();
+		Event event = new Event(this.title == null ? "" : this.title, this.calendar, this.viewers, this.startTime, this.endTime, repeatConfig, null);
+		for (int i = 0; repeatConfig.repeatable && i < this.exceptionDates.size(); ++i) {
+			int occurrenceIndex = event.occurrenceIndexOf(this.exceptionDates.get(i));
+			if (occurrenceIndex == 0) {
+				// the first occurrence is the series itself, the import can't drop it alone
+				continue;
+			}
+			if (occurrenceIndex > 0) {
+				event.skippedOccurrences.add(occurrenceIndex);
+			}
+		}
+		if (repeatConfig.repeatable && this.uid != null) {
+			this.seriesByUID.put(this.uid, event);
+		}
+		this.batch.add(event);
+		if (this.batch.size() >= BATCH_SIZE) {
+			this.flush();
+		}
+	}
+
+	private void flush() {
+		if (this.batch.isEmpty()) {
+			return;
+		}
+		this.calendar.addEvents(this.batch);
+		this.importedEvents += this.batch.size();
+		this.batch.clear();
+	}
+
+	// an override only stores the fields that differ from its occurrence; one of the first occurrence would edit
+	// the series itself and is skipped
+	private void applyOverrides() {
+		for (int i = 0; i < this.overrides.size(); ++i) {
+			OccurrenceOverride override = this.overrides.get(i);
+			Event series = override.uid == null ? null : this.seriesByUID.get(override.uid);
+			int occurrenceIndex = series == null ? -1 : series.occurrenceIndexOf(override.recurrenceID);
+			Event occurrence = occurrenceIndex > 0 ? series.getOccurrence(occurrenceIndex) : null;
+			if (occurrence == null) {
+				++this.skippedEvents;
+				continue;
+			}
+			if (override.cancelled) {
+				this.calendarManager.removeEvent(occurrence.eventID);
+			} else {
+				if (override.title != null && !override.title.equals(occurrence.title)) {
+					occurrence.setEventTitle(override.title);
+				}
+				if (!override.startTime.equals(occurrence.startTime)) {
+					occurrence.setStartTime(override.startTime);
+				}
+				if (!override.endTime.equals(occurrence.endTime)) {
+					occurrence.setEndTime(override.endTime);
+				}
+			}
+			++this.importedEvents;
+		}
+		this.overrides.clear();
+	}
+
+	private RepeatConfig parseRule() {
+		RepeatConfig single = new RepeatConfig(false, null, null);
+		if (this.rule == null) {
+			return single;
+		}
+		String frequency = null;
+		int interval = 1;
+		int count = 0;
+		LocalDateTime until = null;
+		String[] parts = this.rule.split(";");
+		for (int i = 0; i < parts.length; ++i) {
+			int separator = parts[i].indexOf('=');
+			if (separator < 0) {
+				continue;
+			}
+			String key = parts[i].substring(0, separator);
+			String value = parts[i].substring(separator + 1);
+			if (key.equals("FREQ")) {
+				frequency = value;
+			} else if (key.equals("INTERVAL")) {
+				interval = Integer.parseInt(value);
+			} else if (key.equals("COUNT")) {
+				count = Integer.parseInt(value);
+			} else if (key.equals("UNTIL")) {
+				until = this.parseTime("", value);
+				if (value.length() < 15) {
+					// a date includes the occurrences on that day
+					until = until.plusDays(1).minusSeconds(1);
+				}
+			} else if (!key.equals("WKST")) {
+				// BYDAY, BYMONTHDAY and the like pick occurrences a RepeatType can't express
+				return single;
+			}
+		}
+
+		RepeatType repeatFrequency = null;
+		if (frequency == null) {
+			return single;
+		} else if (frequency.equals("DAILY") && interval == 1) {
+			repeatFrequency = RepeatType.DAILY;
+		} else if (frequency.equals("WEEKLY") && interval == 1) {
+			repeatFrequency = RepeatType.WEEKLY;
+		} else if (frequency.equals("MONTHLY") && interval == 1) {
+			repeatFrequency = RepeatType.MONTHLY;
+		} else if (frequency.equals("MONTHLY") && interval == 3) {
+			repeatFrequency = RepeatType.QUARTERLY;
+		} else if (frequency.equals("YEARLY") && interval == 1) {
+			repeatFrequency = RepeatType.ANNUALLY;
+		} else {
+			return single;
+		}
+
+		if (count > 0) {
+			until = Event.occurrenceTime(repeatFrequency, this.startTime, count - 1);
+		} else if (until == null) {
+			until = this.startTime.plusYears(OPEN_ENDED_YEARS);
+		}
+		if (!this.startTime.isBefore(until)) {
+			return single;
+		}
+		return new RepeatConfig(true, until, repeatFrequency);
+	}
+
+	// returns the time in UTC; floating times and dates are taken in the manager's time zone
+	private LocalDateTime parseTime(String parameters, String value) {
+		int year = digits(value, 0, 4);
+		int month = digits(value, 4, 6);
+		int day = digits(value, 6, 8);
+		if (value.length() < 15) {
+			return this.calendarManager.toUTCTime(LocalDateTime.of(year, month, day, 0, 0));
+		}
+		LocalDateTime time = LocalDateTime.of(year, month, day, digits(value, 9, 11), digits(value, 11, 13),
+				digits(value, 13, 15));
+		if (value.length() > 15 && value.charAt(15) == 'Z') {
+			return time;
+		}
+		String zone = parameter(parameters, "TZID");
+		if (zone != null) {
+			try {
+				return time.atZone(ZoneId.of(zone)).withZoneSameInstant(ZoneOffset.UTC).toLocalDateTime();
+			} catch (DateTimeException e) {
+				// zones defined by the file's own VTIMEZONE fall back to the manager's time zone
+			}
+		}
+		return this.calendarManager.toUTCTime(time);
+	}
+
+	private static boolean isDate(String parameters, String value) {
+		return "DATE".equalsIgnoreCase(parameter(parameters, "VALUE")) || value.length() < 15;
+	}
+
+	private static String parameter(String parameters, String name) {
+		int start = parameters.toUpperCase().indexOf(";" + name + "=");
+		if (start < 0) {
+			return null;
+		}
+		start += name.length() + 2;
+		int end = parameters.indexOf(';', start);
+		String value = parameters.substring(start, end < 0 ? parameters.length() : end);
+		if (value.length() >= 2 && value.charAt(0) == '"') {
+			value = value.substring(1, value.length() - 1);
+		}
+		return value;
+	}
+
+	// accepts durations like P1W, P1D, PT1H30M and P1DT12H
+	private static Duration parseDuration(String value) {
+		boolean negative = value.startsWith("-");
+		String duration = value.charAt(0) == '-' || value.charAt(0) == '+' ? value.substring(1) : value;
+		Duration result;
+		if (duration.endsWith("W")) {
+			result = Duration.ofDays(7L * Integer.parseInt(duration.substring(1, duration.length() - 1)));
+		} else {
+			result = Duration.parse(duration);
+		}
+		return negative ? result.negated() : result;
+	}
+
+	private static int digits(String value, int start, int end) {
+		int number = 0;
+		for (int i = start; i < end; ++i) {
+			char digit = value.charAt(i);
+			if (digit < '0' || digit > '9') {
+				throw new Error("The iCalendar time " + value + " is not valid");
+			}
+			number = number * 10 + digit - '0';
+		}
+		return number;
+	}
+
+	private static String unescape(String value) {
+		if (value.indexOf('\\') < 0) {
+			return value;
+		}
+		StringBuilder text = new StringBuilder(value.length());
+		for (int i = 0; i < value.length(); ++i) {
+			char c = value.charAt(i);
+			if (c == '\\' && i + 1 < value.length()) {
+				c = value.charAt(++i);
+				// titles are shown on one line
+				if (c == 'n' || c == 'N') {
+					c = ' ';
+				}
+			}
+			text.append(c);
+		}
+		return text.toString();
+	}
+
+}
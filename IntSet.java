@@ -0,0 +1,72 @@
+package calendar;
+
+import java.util.Arrays;
+
+// a sorted set of ints in one growable array, so occurrence indexes are held without boxing and looked up by
+// binary search
+class IntSet {
+
+	private static final int[] EMPTY = new int[0];
+
+	private int[] values;
+	private int size;
+
+	IntSet() {
+		this.values = EMPTY;
+	}
+
+	int size() {
+		return this.size;
+	}
+
+	boolean isEmpty() {
+		return this.size == 0;
+	}
+
+	// values are kept in ascending order
+	int get(int i) {
+		if (i >= this.size) {
+			throw new IndexOutOfBoundsException("Index " + i + " is out of the set's " + this.size + " values");
+		}
+		return this.values[i];
+	}
+
+	boolean contains(int value) {
+		return Arrays.binarySearch(this.values, 0, this.size, value) >= 0;
+	}
+
+	boolean add(int value) {
+		int position = Arrays.binarySearch(this.values, 0, this.size, value);
+		if (position >= 0) {
+			return false;
+		}
+		position = -position - 1;
+		if (this.size == this.values.length) {
+			this.values = Arrays.copyOf(this.values, Math.max(4, 2 * this.size));
+		}
+		System.arraycopy(this.values, position, this.values, position + 1, this.size - position);
+		this.values[position] = value;
+		++this.size;
+		return true;
+	}
+
+	boolean remove(int value) {
+		int position = Arrays.binarySearch(this.values, 0, this.size, value);
+		if (position < 0) {
+			return false;
+		}
+		System.arraycopy(this.values, position + 1, this.values, position, this.size - position - 1);
+		--this.size;
+		return true;
+	}
+
+	int[] toArray() {
+		return Arrays.copyOf(this.values, this.size);
+	}
+
+	void clear() {
+		this.values = EMPTY;
+		this.size = 0;
+	}
+
+}
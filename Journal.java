@@ -0,0 +1,492 @@
+package calendar;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.UUID;
+import java.util.concurrent.locks.Lock;
+import java.util.zip.CRC32;
+
+// append-only log of every change to the calendar manager, replayed on top of the latest snapshot at startup
+class Journal {
+
+	static final byte ADD_USER = 1;
+	static final byte ADD_CALENDAR = 2;
+	static final byte REMOVE_CALENDAR = 3;
+	static final byte SET_CALENDAR_NAME = 4;
+	static final byte SET_ACCESSIBILITY = 5;
+	static final byte SET_VISIBILITY = 6;
+	static final byte ADD_EVENT = 7;
+	static final byte REMOVE_EVENT = 8;
+	static final byte SET_EVENT_TITLE = 9;
+	static final byte SET_START_TIME = 10;
+	static final byte SET_END_TIME = 11;
+	static final byte SET_REPEATABLE = 12;
+	static final byte SHARE_EVENT = 13;
+	static final byte ADD_TIMER = 14;
+	static final byte REMOVE_TIMER = 15;
+	static final byte SET_THEME = 16;
+	static final byte SET_TIME_ZONE = 17;
+	static final byte ARCHIVE_EVENTS = 18;
+	static final byte REMOVE_USER = 19;
+
+	static final int SNAPSHOT_INTERVAL = 100000;
+
+	private static final String SNAPSHOT_FILE = "snapshot.bin";
+	private static final String SEGMENT_PREFIX = "journal-";
+	private static final String SEGMENT_SUFFIX = ".log";
+
+	File directory;
+	private FileChannel channel;
+	private long segment;
+	private int recordsSinceSnapshot;
+	private ByteArrayOutputStream record;
+	private DataOutputStream recordOut;
+	// records logged since the last commit; the committer swaps in the spare buffer and writes this one
+	private ByteArrayOutputStream pending;
+	private ByteArrayOutputStream spare;
+	// records are numbered as they're logged, and all up to durableSequence are on disk
+	private long loggedSequence;
+	private long durableSequence;
+	private ThreadLocal<Long> lastLogged;
+	private IOException failure;
+	private boolean closing;
+	// held while writing to the segments, so the monitor stays free for logging meanwhile
+	private final Object commitLock;
+	// the previous segment, written but not yet forced when a snapshot started a new one
+	private FileChannel retiredChannel;
+	private Thread committer;
+	private Thread snapshotter;
+
+	// a journal that isn't opened records nothing
+	Journal() {
+		this.record = new ByteArrayOutputStream();
+		this.recordOut = new DataOutputStream(this.record);
+		this.pending = new ByteArrayOutputStream();
+		this.spare = new ByteArrayOutputStream();
+		this.lastLogged = new ThreadLocal<Long>();
+		this.commitLock = new Object();
+	}
+
+	synchronized boolean isOpen() {
+		return this.channel != null;
+	}
+
+	// restores the calendar manager from the directory and starts journaling to it
+	void open(File directory, CalendarManager calendarManager) {
+		this.directory = directory;
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new Error("The journal directory can't be created");
+		}
+		try {
+			long firstSegment = 0;
+			File snapshot = new File(directory, SNAPSHOT_FILE);
+			if (snapshot.exists()) {
+				DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(snapshot)));
+				try {
+					firstSegment = Snapshot.read(in, calendarManager);
+				} finally {
+					in.close();
+				}
+			}
+
+			ArrayList<Long> segments = this.listSegments();
+			this.segment = firstSegment;
+			for (int i = 0; i < segments.size(); ++i) {
+				if (segments.get(i) >= firstSegment) {
+					this.replay(segments.get(i), calendarManager);
+					this.segment = segments.get(i) + 1;
+				}
+			}
+			// a crash may have left a torn record at the end of the last segment, so never append to it
+			FileChannel channel = this.openSegment(this.segment);
+			synchronized (this) {
+				this.channel = channel;
+				this.closing = false;
+			}
+		} catch (IOException e) {
+			throw new Error("The journal can't be opened", e);
+		}
+
+		// commits whenever records are waiting, so the records logged during one commit are forced by the next
+		// one together
+		this.committer = new Thread(new Runnable() {
+			public void run() {
+				while (true) {
+					synchronized (Journal.this) {
+						while (!Journal.this.closing && Journal.this.loggedSequence == Journal.this.durableSequence) {
+							try {
+								Journal.this.wait();
+							} catch (InterruptedException e) {
+								return;
+							}
+						}
+						if (Journal.this.closing) {
+							return;
+						}
+					}
+					commit();
+				}
+			}
+		}, "journal-committer");
+		this.committer.setDaemon(true);
+		this.committer.start();
+	}
+
+	void close() {
+		if (!this.isOpen()) {
+			return;
+		}
+		synchronized (this) {
+			this.closing = true;
+			this.notifyAll();
+		}
+		try {
+			this.committer.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		this.commit();
+		this.awaitSnapshot();
+		synchronized (this.commitLock) {
+			synchronized (this) {
+				try {
+					this.channel.close();
+				} catch (IOException e) {
+					throw new Error("The journal can't be closed", e);
+				}
+				this.channel = null;
+				this.notifyAll();
+			}
+		}
+	}
+
+	// values are encoded in the order the replay of the operation reads them. The caller holds the write lock,
+	// and waits for the record to be durable once it's released it; only appending to the pending records
+	// happens here
+	void log(byte operation, Object... values) {
+		synchronized (this) {
+			if (this.channel == null) {
+				return;
+			}
+			try {
+				this.record.reset();
+				this.recordOut.writeByte(operation);
+				for (int i = 0; i < values.length; ++i) {
+					this.writeValue(values[i]);
+				}
+
+				CRC32 checksum = new CRC32();
+				checksum.update(this.record.toByteArray());
+				DataOutputStream out = new DataOutputStream(this.pending);
+				out.writeInt(this.record.size());
+				out.writeInt((int) checksum.getValue());
+				this.record.writeTo(out);
+			} catch (IOException e) {
+				throw new Error("The journal can't be written", e);
+			}
+			this.lastLogged.set(++this.loggedSequence);
+			this.notifyAll();
+			if (++this.recordsSinceSnapshot < SNAPSHOT_INTERVAL) {
+				return;
+			}
+		}
+		this.snapshot(CalendarManager.getCalendarManager());
+	}
+
+	// waits until every record the thread has logged is on disk
+	void awaitDurable() {
+		Long sequence = this.lastLogged.get();
+		if (sequence == null) {
+			return;
+		}
+		synchronized (this) {
+			while (this.durableSequence < sequence && this.failure == null && this.channel != null) {
+				try {
+					this.wait();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return;
+				}
+			}
+			if (this.durableSequence < sequence && this.failure != null) {
+				throw new Error("The journal can't be committed", this.failure);
+			}
+		}
+	}
+
+	// writes and forces every pending record, making them durable as one group; the fsync runs outside the
+	// monitor, so records keep being logged meanwhile
+	void commit() {
+		synchronized (this.commitLock) {
+			if (!this.isOpen()) {
+				return;
+			}
+			try {
+				long sequence = this.writePending();
+				if (this.retiredChannel != null) {
+					this.retiredChannel.force(false);
+					this.retiredChannel.close();
+					this.retiredChannel = null;
+				}
+				this.channel.force(false);
+				synchronized (this) {
+					this.durableSequence = sequence;
+					this.notifyAll();
+				}
+			} catch (IOException e) {
+				synchronized (this) {
+					this.failure = e;
+					this.notifyAll();
+				}
+				throw new Error("The journal can't be committed", e);
+			}
+		}
+	}
+
+	// writes the pending records to the current segment without forcing them, and returns the number of the last
+	private long writePending() throws IOException {
+		ByteArrayOutputStream records;
+		long sequence;
+		synchronized (this) {
+			records = this.pending;
+			this.pending = this.spare;
+			this.spare = records;
+			sequence = this.loggedSequence;
+		}
+		ByteBuffer buffer = ByteBuffer.wrap(records.toByteArray());
+		while (buffer.hasRemaining()) {
+			this.channel.write(buffer);
+		}
+		records.reset();
+		return sequence;
+	}
+
+	// copies the state, starts a new segment for later records and encodes and writes the snapshot in the
+	// background; under the write lock, so no record comes in between the copy and the new segment
+	void snapshot(CalendarManager calendarManager) {
+		Lock lock = calendarManager.writeLock();
+		lock.lock();
+		try {
+			this.awaitSnapshot();
+			synchronized (this.commitLock) {
+				if (!this.isOpen()) {
+					return;
+				}
+				// the records so far stay in the old segment, which the next commit forces
+				this.writePending();
+				if (this.retiredChannel != null) {
+					this.retiredChannel.force(false);
+					this.retiredChannel.close();
+				}
+				this.retiredChannel = this.channel;
+				FileChannel channel = this.openSegment(++this.segment);
+				synchronized (this) {
+					this.channel = channel;
+					this.recordsSinceSnapshot = 0;
+					this.notifyAll();
+				}
+			}
+
+			final Snapshot snapshot = new Snapshot(calendarManager, this.segment);
+			final long coveredSegment = this.segment;
+			final long latestArchive = EventArchive.latestGeneration(this.directory);
+			this.snapshotter = new Thread(new Runnable() {
+				public void run() {
+					writeSnapshot(snapshot, coveredSegment, latestArchive);
+				}
+			}, "journal-snapshotter");
+			this.snapshotter.start();
+		} catch (IOException e) {
+			throw new Error("The snapshot can't be taken", e);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private void writeSnapshot(Snapshot snapshot, long coveredSegment, long latestArchive) {
+		File temporary = new File(this.directory, SNAPSHOT_FILE + ".tmp");
+		try {
+			FileOutputStream file = new FileOutputStream(temporary);
+			try {
+				DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file));
+				snapshot.write(out);
+				out.flush();
+				file.getFD().sync();
+			} finally {
+				file.close();
+			}
+			Files.move(temporary.toPath(), new File(this.directory, SNAPSHOT_FILE).toPath(),
+					StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+			ArrayList<Long> segments = this.listSegments();
+			for (int i = 0; i < segments.size(); ++i) {
+				if (segments.get(i) < coveredSegment) {
+					Files.deleteIfExists(this.segmentFile(segments.get(i)).toPath());
+				}
+			}
+			// archives built after the snapshot was taken may still be needed by the newer segments
+			HashSet<String> archives = snapshot.getArchives();
+			String[] names = this.directory.list();
+			for (int i = 0; names != null && i < names.length; ++i) {
+				if (names[i].startsWith(EventArchive.DIRECTORY_PREFIX) && !archives.contains(names[i])
+						&& Long.parseLong(names[i].substring(EventArchive.DIRECTORY_PREFIX.length())) <= latestArchive) {
+					EventArchive.delete(new File(this.directory, names[i]));
+				}
+			}
+		} catch (IOException e) {
+			throw new Error("The snapshot can't be written", e);
+		}
+	}
+
+	private void awaitSnapshot() {
+		if (this.snapshotter == null) {
+			return;
+		}
+		try {
+			this.snapshotter.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		this.snapshotter = null;
+	}
+
+	private void replay(long segment, CalendarManager calendarManager) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(this.segmentFile(segment))));
+		try {
+			while (true) {
+				byte[] bytes;
+				try {
+					int length = in.readInt();
+					int checksum = in.readInt();
+					bytes = new byte[length];
+					in.readFully(bytes);
+					CRC32 actual = new CRC32();
+					actual.update(bytes);
+					if ((int) actual.getValue() != checksum) {
+						return;
+					}
+				} catch (EOFException e) {
+					return;
+				}
+				this.apply(new DataInputStream(new ByteArrayInputStream(bytes)), calendarManager);
+			}
+		} finally {
+			in.close();
+		}
+	}
+
+	private void apply(DataInputStream in, CalendarManager calendarManager) throws IOException {
+		byte operation = in.readByte();
+		if (operation == ADD_USER) {
+			calendarManager.addUser(Snapshot.readUser(in));
+		} else if (operation == ADD_CALENDAR) {
+			calendarManager.addCalendar(Snapshot.readCalendar(in));
+		} else if (operation == REMOVE_CALENDAR) {
+			calendarManager.removeCalendar(Snapshot.readUUID(in));
+		} else if (operation == SET_CALENDAR_NAME) {
+			calendarManager.getCalendar(Snapshot.readUUID(in)).setCalendarName(in.readUTF());
+		} else if (operation == SET_ACCESSIBILITY) {
+			calendarManager.getCalendar(Snapshot.readUUID(in)).setAccessibility(in.readBoolean());
+		} else if (operation == SET_VISIBILITY) {
+			calendarManager.getCalendar(Snapshot.readUUID(in)).setVisibility(in.readBoolean());
+		} else if (operation == ADD_EVENT) {
+			Event event = Snapshot.readEvent(in);
+			calendarManager.addEvent(event, event.calendar.calendarID);
+		} else if (operation == REMOVE_EVENT) {
+			calendarManager.removeEvent(Snapshot.readUUID(in));
+		} else if (operation == SET_EVENT_TITLE) {
+			calendarManager.getEvent(Snapshot.readUUID(in)).setEventTitle(in.readUTF());
+		} else if (operation == SET_START_TIME) {
+			calendarManager.getEvent(Snapshot.readUUID(in)).setStartTime(Snapshot.readTime(in));
+		} else if (operation == SET_END_TIME) {
+			calendarManager.getEvent(Snapshot.readUUID(in)).setEndTime(Snapshot.readTime(in));
+		} else if (operation == SET_REPEATABLE) {
+			calendarManager.getEvent(Snapshot.readUUID(in)).setRepeatable(Snapshot.readRepeatConfig(in));
+		} else if (operation == SHARE_EVENT) {
+			calendarManager.getEvent(Snapshot.readUUID(in)).shareEventWith(Snapshot.readUUID(in));
+		} else if (operation == ADD_TIMER) {
+			calendarManager.addTimer(Snapshot.readTimer(in));
+		} else if (operation == REMOVE_TIMER) {
+			calendarManager.removeTimer(Snapshot.readUUID(in));
+		} else if (operation == SET_THEME) {
+			calendarManager.setTheme(CalendarTheme.values()[in.readByte()]);
+		} else if (operation == SET_TIME_ZONE) {
+			calendarManager.setTimeZone(in.readInt());
+		} else if (operation == ARCHIVE_EVENTS) {
+			calendarManager.getCalendar(Snapshot.readUUID(in)).archiveEvents(Snapshot.readTime(in), in.readUTF());
+		} else if (operation == REMOVE_USER) {
+			calendarManager.removeUser(Snapshot.readUUID(in));
+		} else {
+			throw new Error("The journal record is not readable");
+		}
+	}
+
+	private void writeValue(Object value) throws IOException {
+		if (value instanceof UUID) {
+			Snapshot.writeUUID(this.recordOut, (UUID) value);
+		} else if (value instanceof String) {
+			this.recordOut.writeUTF((String) value);
+		} else if (value instanceof Boolean) {
+			this.recordOut.writeBoolean((Boolean) value);
+		} else if (value instanceof Integer) {
+			this.recordOut.writeInt((Integer) value);
+		} else if (value instanceof LocalDateTime) {
+			Snapshot.writeTime(this.recordOut, (LocalDateTime) value);
+		} else if (value instanceof RepeatConfig) {
+			Snapshot.writeRepeatConfig(this.recordOut, (RepeatConfig) value);
+		} else if (value instanceof CalendarTheme) {
+			this.recordOut.writeByte(((CalendarTheme) value).ordinal());
+		} else if (value instanceof User) {
+			Snapshot.writeUser(this.recordOut, (User) value);
+		} else if (value instanceof Calendar) {
+			Snapshot.writeCalendar(this.recordOut, (Calendar) value);
+		} else if (value instanceof Event) {
+			Snapshot.writeEvent(this.recordOut, (Event) value);
+		} else if (value instanceof CountdownTimer) {
+			Snapshot.writeTimer(this.recordOut, (CountdownTimer) value);
+		} else {
+			throw new Error("The value can't be journaled");
+		}
+	}
+
+	private FileChannel openSegment(long segment) throws IOException {
+		return FileChannel.open(this.segmentFile(segment).toPath(), StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+	}
+
+	private File segmentFile(long segment) {
+		return new File(this.directory, SEGMENT_PREFIX + String.format("%012d", segment) + SEGMENT_SUFFIX);
+	}
+
+	private ArrayList<Long> listSegments() {
+		ArrayList<Long> segments = new ArrayList<Long>();
+		String[] names = this.directory.list();
+		for (int i = 0; names != null && i < names.length; ++i) {
+			if (names[i].startsWith(SEGMENT_PREFIX) && names[i].endsWith(SEGMENT_SUFFIX)) {
+				segments.add(Long.parseLong(names[i].substring(SEGMENT_PREFIX.length(),
+						names[i].length() - SEGMENT_SUFFIX.length())));
+			}
+		}
+		Collections.sort(segments);
+		return segments;
+	}
+
+}
@@ -1,11 +1,20 @@
 package calendar;
 
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
 import java.time.LocalDateTime;
 import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
 import java.time.temporal.TemporalField;
 import java.time.temporal.WeekFields;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.Locale;
 import java.util.Scanner;
 import java.util.UUID;
@@ -14,10 +23,28 @@ public class Main {
 
 	public static Scanner scanner;
 	public static CalendarManager calendarManager;
+	public static Session session;
+	public static Renderer renderer;
+
+	static final String DATA_DIRECTORY = "calendar-data";
 
 	public static void main(String[] args) {
 		int timezone = OffsetDateTime.now().getOffset().getTotalSeconds();
 		calendarManager = CalendarManager.getCalendarManager(timezone / 60 / 60);
+		calendarManager.journal.open(new File(DATA_DIRECTORY), calendarManager);
+		Metrics.register(calendarManager);
+		renderer = Renderer.standardOutput();
+		// java calendar.Main --batch [script] runs the script, or standard input, instead of the menus
+		if (args.length > 0 && args[0].equals("--batch")) {
+			int status = runBatch(args.length > 1 ? new File(args[1]) : null);
+			calendarManager.journal.close();
+			System.exit(status);
+		}
+		calendarManager.timerWheel.setListener(new TimerWheel.Listener() {
+			public void timerExpired(CountdownTimer timer) {
+				System.out.println("\n\nTimer \"" + timer.name + "\" is up!\n");
+			}
+		});
 
 		scanner = new Scanner(System.in);
 		int status = 1;
@@ -26,9 +53,29 @@ public class Main {
 			login();
 			status = operate();			
 		}
+		calendarManager.journal.close();
 		scanner.close();
 	}
 
+	static int runBatch(File script) {
+		try {
+			Reader reader = new InputStreamReader(script == null ? System.in : new FileInputStream(script),
+					StandardCharsets.UTF_8);
+			try {
+				int commands = new BatchRunner(calendarManager, renderer).run(reader);
+				System.err.println(commands + " commands run");
+				return 0;
+			} finally {
+				reader.close();
+			}
+		} catch (IOException e) {
+			System.err.println("The script can't be read: " + e.getMessage());
+		} catch (Error e) {
+			System.err.println(e.getMessage());
+		}
+		return 1;
+	}
+
 	static void welcome() {
 		System.out.println("*-*-*-*-*-*-*-* Welcome to Calendars *-*-*-*-*-*-*-*\n");
 	}
@@ -36,7 +83,7 @@ public class Main {
 	static void login() {
 		System.out.print("Please login with your username to continue: ");
 		String username = scanner.nextLine();
-		calendarManager.login(username);
+		session = calendarManager.login(username);
 		System.out.println();
 		System.out.println("Welcome, " + username + "!\n");
 	}
@@ -60,15 +107,17 @@ public class Main {
 					+ "[14] View timers\n"
 					+ "[15] Add a timer\n"
 					+ "[16] Delete a timer\n"
-					+ "[17] Logout\n"
-					+ "[18] Exit");
+					+ "[17] Find a free time\n"
+					+ "[18] Turn conflict warnings " + (session.conflictDetection ? "off" : "on") + "\n"
+					+ "[19] Logout\n"
+					+ "[20] Exit");
 			System.out.print("Please select an option to continue (enter the number): ");
 			int operation = Integer.parseInt(scanner.nextLine());
 			System.out.println();
-			if (operation == 17) {
+			if (operation == 19) {
 				System.out.println("Logging out...\n");
 				return 1;
-			} else if (operation == 18) {
+			} else if (operation == 20) {
 				System.out.println("System exiting...");
 				return 0;
 			} else {
@@ -110,6 +159,11 @@ public class Main {
 			addTimer();
 		} else if (operation == 16) {
 			deleteTimer();
+		} else if (operation == 17) {
+			findFreeTime();
+		} else if (operation == 18) {
+			session.conflictDetection = !session.conflictDetection;
+			System.out.println("Conflict warnings are turned " + (session.conflictDetection ? "on" : "off") + "\n");
 		} else {
 			System.out.println("Operation is invalid");
 		}
@@ -118,13 +172,13 @@ public class Main {
 	static void addCalendar() {
 		System.out.print("Calendar name: ");
 		String calendarName = scanner.nextLine();
-		Calendar calendar = new Calendar(calendarName, calendarManager.currentUser);
+		Calendar calendar = new Calendar(calendarName, session.userID);
 		calendarManager.addCalendar(calendar);
 		System.out.println("Calendar is added!\n");
 	}
 
 	static void deleteCalendar() {
-		if (calendarManager.getCalendars(calendarManager.currentUser, false).size() <= 0) {
+		if (calendarManager.getCalendars(session.userID, false).size() <= 0) {
 			System.out.println("There is no calendar to delete!\n");
 			return;
 		}
@@ -135,7 +189,7 @@ public class Main {
 	}
 
 	static void updateCalendar() {
-		if (calendarManager.getCalendars(calendarManager.currentUser, false).size() <= 0) {
+		if (calendarManager.getCalendars(session.userID, false).size() <= 0) {
 			System.out.println("There is no calendar in the system.\n");
 			return;
 		}
@@ -156,17 +210,57 @@ public class Main {
 		} else if (operation == 3) {
 			calendar.setVisibility(!calendar.isVisible);
 			System.out.println("Calendar is now " + (calendar.isVisible ? "visible" : "hidden"));
+		} else if (operation == 4) {
+			int archived = calendar.archiveEvents(LocalDateTime.now(ZoneOffset.UTC));
+			System.out.println(archived + " past events are archived, the calendar's archive holds "
+					+ (calendar.archive == null ? 0 : calendar.archive.countEvents(null, null)) + " events");
+		} else if (operation == 5) {
+			System.out.print("Path of the iCalendar (.ics) file: ");
+			File file = new File(scanner.nextLine());
+			IcsImporter importer = IcsImporter.importEvents(file, calendar);
+			System.out.println(importer.getImportedEvents() + " events are imported, " + importer.getSkippedEvents()
+					+ " are skipped");
+		} else if (operation == 6) {
+			System.out.print("Export format (ICS/CSV): ");
+			EventExporter.Format format = EventExporter.Format.valueOf(scanner.nextLine().trim().toUpperCase());
+			System.out.print("Path of the exported file: ");
+			int exported = exportEvents(calendar, new File(scanner.nextLine()), format);
+			System.out.println(exported + " events are exported");
+		} else if (operation == 7) {
+			ArrayList<Conflict> conflicts = calendar.findAllConflicts(null, null);
+			System.out.println(conflicts.size() + " pairs of events overlap\n");
+			for (int i = 0; i < conflicts.size(); ++i) {
+				System.out.println(conflicts.get(i) + "\n");
+			}
 		} else {
 			System.out.println("Operation is invalid");
 		}
 		System.out.println();
 	}
 
+	static int exportEvents(Calendar calendar, File file, EventExporter.Format format) {
+		try {
+			FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+					StandardOpenOption.TRUNCATE_EXISTING);
+			try {
+				return EventExporter.exportCalendar(calendar, channel, format);
+			} finally {
+				channel.close();
+			}
+		} catch (IOException e) {
+			throw new Error("The export file can't be written", e);
+		}
+	}
+
 	static int printCalendarSettings() {
 		System.out.println("*-*-*-* Calendar Settings *-*-*-*\n\n"
 				+ "[1] Change calendar name\n"
 				+ "[2] Change calendar's accessibility (public / private)\n"
-				+ "[3] Change calendar's visibility");
+				+ "[3] Change calendar's visibility\n"
+				+ "[4] Archive past events\n"
+				+ "[5] Import events from an iCalendar (.ics) file\n"
+				+ "[6] Export events\n"
+				+ "[7] Find overlapping events");
 		System.out.print("Please select an option to continue (enter the number): ");
 		int operation = Integer.parseInt(scanner.nextLine());
 		System.out.println();
@@ -174,17 +268,17 @@ public class Main {
 	}
 
 	static void printCalendars(Boolean includePublic) {
-		ArrayList<Calendar> calendars = calendarManager.getCalendars(calendarManager.currentUser, includePublic);
+		ArrayList<Calendar> calendars = calendarManager.getCalendars(session.userID, includePublic);
 		if (calendars.size() <= 0) {
 			System.out.println("There is no calendar in the system.\n");
 			return;
 		}
 
-		System.out.println("*-*-*-* Calendar List *-*-*-*\n");
+		renderer.appendText("*-*-*-* Calendar List *-*-*-*\n\n");
 		for (int i = 0; i < calendars.size(); ++i) {
-			Calendar calendar = calendars.get(i);
-			System.out.println(calendar + "\n");
+			renderer.appendCalendar(calendars.get(i)).appendText("\n\n");
 		}
+		renderer.flush();
 	}
 
 	static UUID getCalendarID(String query) {
@@ -195,7 +289,7 @@ public class Main {
 	}
 
 	static void addEvent() {
-		if (calendarManager.getCalendars(calendarManager.currentUser, false).size() <= 0) {
+		if (calendarManager.getCalendars(session.userID, false).size() <= 0) {
 			System.out.println("There is no calendar in the system.\n");
 			return;
 		}
@@ -219,19 +313,42 @@ public class Main {
 		ArrayList<UUID> viewers = getEventViewers();
 
 		Event event = new Event(eventTitle, calendarID, viewers, startTime, endTime, repeatConfig, null);
+		if (!confirmConflicts(event, null)) {
+			System.out.println("Event is not added.\n");
+			return;
+		}
 		calendarManager.addEvent(event, calendarID);
 
 		System.out.println("Event is added!\n");
 	}
 
+	// with conflict warnings on, lists the events the given one would overlap and asks whether to go ahead
+	static boolean confirmConflicts(Event event, Event ignoredEvent) {
+		if (!session.conflictDetection) {
+			return true;
+		}
+		ArrayList<Event> conflicts = event.calendar.findConflicts(event, ignoredEvent);
+		if (conflicts.size() <= 0) {
+			return true;
+		}
+		System.out.println("The event overlaps " + conflicts.size() + " events:\n");
+		for (int i = 0; i < conflicts.size(); ++i) {
+			System.out.println(Conflict.describe(conflicts.get(i)));
+		}
+		System.out.print("\nDo you want to go ahead (Y/N): ");
+		String ans = scanner.nextLine();
+		System.out.println();
+		return ans.equals("Y");
+	}
+
 	static ArrayList<UUID> getEventViewers() {
 		System.out.print("Do you want to share this event (Y/N): ");
 		String ans = scanner.nextLine();
 		System.out.println();
 
 		ArrayList<UUID> viewers = new ArrayList<UUID>();
-		viewers.add(calendarManager.currentUser);
-		if (ans.equals("Y") && calendarManager.userList.size() <= 1) {
+		viewers.add(session.userID);
+		if (ans.equals("Y") && calendarManager.getUsers().size() <= 1) {
 			printUsers();
 		} else if (ans.equals("Y")) {
 			printUsers();
@@ -250,7 +367,7 @@ public class Main {
 	}
 
 	static void deleteEvent() {
-		if (calendarManager.getEvents(calendarManager.currentUser, false).size() <= 0) {
+		if (calendarManager.getEvents(session.userID, false).size() <= 0) {
 			System.out.println("There is no event to delete!\n");
 			return;
 		}
@@ -261,7 +378,7 @@ public class Main {
 	}
 
 	static void updateEvent() {
-		if (calendarManager.getEvents(calendarManager.currentUser, false).size() <= 0) {
+		if (calendarManager.getEvents(session.userID, false).size() <= 0) {
 			System.out.println("There is no event in the system.\n");
 			return;
 		}
@@ -278,12 +395,24 @@ public class Main {
 			System.out.println("Event's name is changed to " + event.title);
 		} else if (operation == 2) {
 			LocalDateTime startTime = getTime("Enter the new start time [i.e. 2019-12-01T14:00:00]: ");
+			Event movedEvent = new Event(event.title, event.calendar, event.viewers, startTime, event.endTime,
+					event.repeatConfig, event.originalEvent);
+			if (!confirmConflicts(movedEvent, event)) {
+				System.out.println("Event's start time is not changed.\n");
+				return;
+			}
 			event.setStartTime(startTime);
-			System.out.println("Event's start time is changed to " + event.startTime);
+			System.out.println("Event's start time is changed to " + calendarManager.toLocalTime(event.startTime));
 		} else if (operation == 3) {
 			LocalDateTime endTime = getTime("Enter the new end time [i.e. 2019-12-01T15:00:00]: ");
+			Event movedEvent = new Event(event.title, event.calendar, event.viewers, event.startTime, endTime,
+					event.repeatConfig, event.originalEvent);
+			if (!confirmConflicts(movedEvent, event)) {
+				System.out.println("Event's end time is not changed.\n");
+				return;
+			}
 			event.setEndTime(endTime);
-			System.out.println("Event's end time is changed to " + event.endTime);
+			System.out.println("Event's end time is changed to " + calendarManager.toLocalTime(event.endTime));
 		} else if (operation == 4) {
 			RepeatConfig repeatConfig = getRepeatConfig("Do you want to set the event as repeatable (Y/N): ");
 			event.setRepeatable(repeatConfig);
@@ -308,11 +437,11 @@ public class Main {
 	}
 
 	static void shareEvent() {
-		if (calendarManager.getEvents(calendarManager.currentUser, false).size() <= 0) {
+		if (calendarManager.getEvents(session.userID, false).size() <= 0) {
 			System.out.println("There is no event in the system!\n");
 			return;
 		}
-		if (calendarManager.userList.size() <= 1) {
+		if (calendarManager.getUsers().size() <= 1) {
 			printUsers();
 			return;
 		}
@@ -377,10 +506,7 @@ public class Main {
 	}
 
 	static void printEvents(Boolean includePublic) {
-		ArrayList<Event> events = calendarManager.getEvents(calendarManager.currentUser, includePublic);
-		Collections.sort(events);
-
-		if (events.size() <= 0) {
+		if (calendarManager.nextPeriod(session.userID, includePublic, ViewPeriod.YEAR, null) == null) {
 			System.out.println("There is no event in the system!\n");
 			return;
 		}
@@ -395,87 +521,101 @@ public class Main {
 		System.out.println("\n*-*-*-* Event List *-*-*-*\n");
 
 		if (operation == 1) {
-			printEventsByDay(events);
+			printEventsByPeriod(includePublic, ViewPeriod.DAY);
 		} else if (operation == 2) {
-			printEventsByWeek(events);
+			printEventsByPeriod(includePublic, ViewPeriod.WEEK);
 		} else if (operation == 3) {
-			printEventsByMonth(events);
+			printEventsByPeriod(includePublic, ViewPeriod.MONTH);
 		} else if (operation == 4) {
-			printEventsByYear(events);
+			printEventsByPeriod(includePublic, ViewPeriod.YEAR);
 		} else {
 			System.out.println("Operation is invalid");
 		}
 	}
 
-	static void printEventsByDay(ArrayList<Event> events) {
-		LocalDateTime lastEventDate = null;
-		for (int i = 0; i < events.size(); ++i) {
-			Event event = events.get(i);
-			if (lastEventDate == null || event.startTime.getYear() != lastEventDate.getYear()
-					|| event.startTime.getDayOfYear() != lastEventDate.getDayOfYear()) {
-				lastEventDate = event.startTime;
-				System.out.println("Events on " + lastEventDate.toLocalDate() + ":\n");
-			}
-			System.out.println(event);
-		}
+	// reads one period's bucket at a time instead of grouping every event up front
+	static void printEventsByPeriod(Boolean includePublic, ViewPeriod period) {
+		renderEventsByPeriod(renderer, session.userID, includePublic, period);
+		renderer.flush();
 	}
 
-	static void printEventsByWeek(ArrayList<Event> events) {
-		LocalDateTime lastEventDate = null;
+	static void renderEventsByPeriod(Renderer renderer, UUID userID, Boolean includePublic, ViewPeriod period) {
 		TemporalField weekOfMonth = WeekFields.of(Locale.getDefault()).weekOfMonth();
-		TemporalField weekOfYear = WeekFields.of(Locale.getDefault()).weekOfWeekBasedYear();
-		for (int i = 0; i < events.size(); ++i) {
-			Event event = events.get(i);
-			if (lastEventDate == null || event.startTime.getYear() != lastEventDate.getYear()
-					|| event.startTime.get(weekOfYear) != lastEventDate.get(weekOfYear)) {
-				lastEventDate = event.startTime;
-				System.out.println("Events on " + lastEventDate.getYear() + "-" + lastEventDate.getMonthValue()
-					+ " week " + lastEventDate.get(weekOfMonth) + ":\n");
+		Long key = calendarManager.nextPeriod(userID, includePublic, period, null);
+		while (key != null) {
+			ArrayList<Event> events = calendarManager.getEvents(userID, includePublic, period, key);
+			if (events.size() > 0) {
+				LocalDateTime eventDate = calendarManager.toLocalTime(events.get(0).startTime);
+				if (period == ViewPeriod.DAY) {
+					renderer.appendText("Events on " + eventDate.toLocalDate() + ":\n\n");
+				} else if (period == ViewPeriod.WEEK) {
+					renderer.appendText("Events on " + eventDate.getYear() + "-" + eventDate.getMonthValue()
+						+ " week " + eventDate.get(weekOfMonth) + ":\n\n");
+				} else if (period == ViewPeriod.MONTH) {
+					renderer.appendText("Events in " + eventDate.getYear() + "-" + eventDate.getMonthValue() + ":\n\n");
+				} else {
+					renderer.appendText("Events in " + eventDate.getYear() + ":\n\n");
+				}
 			}
-			System.out.println(event);
-		}
-	}
-
-	static void printEventsByMonth(ArrayList<Event> events) {
-		LocalDateTime lastEventDate = null;
-		for (int i = 0; i < events.size(); ++i) {
-			Event event = events.get(i);
-			if (lastEventDate == null || event.startTime.getYear() != lastEventDate.getYear()
-					|| event.startTime.getMonthValue() != lastEventDate.getMonthValue()) {
-				lastEventDate = event.startTime;
-				System.out.println("Events in " + lastEventDate.getYear() + "-" + lastEventDate.getMonthValue() + ":\n");
+			for (int i = 0; i < events.size(); ++i) {
+				renderer.appendEvent(events.get(i)).appendText("\n");
 			}
-			System.out.println(event);
-		}
-	}
-
-	static void printEventsByYear(ArrayList<Event> events) {
-		LocalDateTime lastEventDate = null;
-		for (int i = 0; i < events.size(); ++i) {
-			Event event = events.get(i);
-			if (lastEventDate == null || event.startTime.getYear() != lastEventDate.getYear()) {
-				lastEventDate = event.startTime;
-				System.out.println("Events in " + lastEventDate.getYear() + ":\n");
-			}
-			System.out.println(event);
+			key = calendarManager.nextPeriod(userID, includePublic, period, key);
 		}
 	}
 
 	static void printUsers() {
-		if (calendarManager.userList.size() <= 1) {
+		ArrayList<User> users = calendarManager.getUsers();
+		if (users.size() <= 1) {
 			System.out.println("There is no other user in the system.\n");
 			return;
 		}
 
 		System.out.println("*-*-*-* User List *-*-*-*\n");
-		for (int i = 0; i < calendarManager.userList.size(); ++i) {
-			User user = calendarManager.userList.get(i);
-			if (user.userID != calendarManager.currentUser) {
+		for (int i = 0; i < users.size(); ++i) {
+			User user = users.get(i);
+			if (user.userID != session.userID) {
 				System.out.println(user + "\n");				
 			}
 		}
 	}
 
+	static void findFreeTime() {
+		ArrayList<UUID> userIDs = new ArrayList<UUID>();
+		userIDs.add(session.userID);
+		if (calendarManager.getUsers().size() > 1) {
+			printUsers();
+			while (true) {
+				System.out.print("Meet with which user (enter user ID or N when you're done): ");
+				String userID = scanner.nextLine();
+				if (userID.equals("N")) {
+					break;
+				}
+				userIDs.add(UUID.fromString(userID));
+			}
+			System.out.println();
+		}
+
+		LocalDateTime from = getTime("Earliest start [i.e. 2017-12-03T09:00:00]: ");
+		System.out.println();
+		LocalDateTime to = getTime("Latest end [i.e. 2017-12-08T17:00:00]: ");
+		System.out.println();
+		System.out.print("Meeting length in minutes: ");
+		Duration length = Duration.ofMinutes(Long.parseLong(scanner.nextLine()));
+		System.out.println();
+
+		ArrayList<TimeSlot> freeSlots = calendarManager.getFreeTimes(userIDs, from, to, length);
+		if (freeSlots.size() <= 0) {
+			System.out.println("There is no free time for everyone.\n");
+			return;
+		}
+		System.out.println("*-*-*-* Free Times *-*-*-*\n");
+		for (int i = 0; i < freeSlots.size(); ++i) {
+			System.out.println(freeSlots.get(i));
+		}
+		System.out.println();
+	}
+
 	static void changeTheme() {
 		calendarManager.setTheme(calendarManager.theme == CalendarTheme.LIGHT ? CalendarTheme.DARK : CalendarTheme.LIGHT);
 		System.out.println("Calendars is changed to " + calendarManager.getTheme() + "\n");
@@ -497,12 +637,12 @@ public class Main {
 		System.out.print("Please enter the search query: ");
 		String query = scanner.nextLine();
 
-		ArrayList<Event> results = calendarManager.searchEvent(query);
-		System.out.println("\n*-*-*-* Search Results *-*-*-*\n");
-
+		ArrayList<Event> results = calendarManager.searchEvent(session.userID, query);
+		renderer.appendText("\n*-*-*-* Search Results *-*-*-*\n\n");
 		for (int i = 0; i < results.size(); ++i) {
-			System.out.println(results.get(i));
+			renderer.appendEvent(results.get(i)).appendText("\n");
 		}
+		renderer.flush();
 	}
 
 	static void addTimer() {
@@ -511,27 +651,27 @@ public class Main {
 		System.out.println();
 
 		if (ans.equals("Y")) {
-			if (calendarManager.getEvents(calendarManager.currentUser, false).size() <= 0) {
+			if (calendarManager.getEvents(session.userID, false).size() <= 0) {
 				System.out.println("There is no event in the system!\n");
 				return;
 			}
 
 			UUID eventID = getEventID("Please select an event for the timer (enter event ID): ");
 			Event event = calendarManager.getEvent(eventID);
-			CountdownTimer timer = new CountdownTimer(event.title, event.endTime, calendarManager.currentUser, eventID);
+			CountdownTimer timer = new CountdownTimer(event.title, event.endTime, session.userID, eventID);
 			calendarManager.addTimer(timer);
 		} else {
 			System.out.print("Timer name: ");
 			String name = scanner.nextLine();
 			LocalDateTime endTime = getTime("\nTimer end time [i.e. 2017-12-03T10:15:30]: ");
-			CountdownTimer timer = new CountdownTimer(name, endTime, calendarManager.currentUser, null);
+			CountdownTimer timer = new CountdownTimer(name, endTime, session.userID, null);
 			calendarManager.addTimer(timer);
 		}
 		System.out.println();
 	}
 
 	static void deleteTimer() {
-		if (calendarManager.getTimers(calendarManager.currentUser).size() <= 0) {
+		if (calendarManager.getTimers(session.userID).size() <= 0) {
 			System.out.println("There is no timer to delete!\n");
 			return;
 		}
@@ -545,23 +685,23 @@ public class Main {
 	}
 
 	static void printTimers() {
-		ArrayList<CountdownTimer> timers = calendarManager.getTimers(calendarManager.currentUser);
+		ArrayList<CountdownTimer> timers = calendarManager.getTimers(session.userID);
 		if (timers.size() <= 0) {
 			System.out.println("There is no timer in the system.\n");
 			return;
 		}
 
-		System.out.println("*-*-*-* Timer List *-*-*-*\n");
+		renderer.appendText("*-*-*-* Timer List *-*-*-*\n\n");
 		for (int i = 0; i < timers.size(); ++i) {
-			CountdownTimer timer = timers.get(i);
-			System.out.println(timer + "\n");
+			renderer.appendTimer(timers.get(i)).appendText("\n\n");
 		}
+		renderer.flush();
 	}
 
 	static LocalDateTime getTime(String query) {
 		System.out.print(query);
 		LocalDateTime time = LocalDateTime.parse(scanner.nextLine());
-		return time;
+		return calendarManager.toUTCTime(time);
 	}
 
 }
@@ -0,0 +1,373 @@
+package calendar;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Lock;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+// latency histograms of the hot operations and gauges of how big the calendars have grown, registered as MXBeans
+// under "calendar:" and dumped as text every calendar.metrics.dump seconds if set; nothing is recorded unless the
+// JVM runs with -Dcalendar.metrics=true, and then recording only adds to striped and atomic counters
+class Metrics {
+
+	enum Operation {
+
+		LOGIN("login"), ADD_EVENT("addEvent"), GET_EVENTS("getEvents"), SEARCH_EVENT("searchEvent"),
+		CALENDAR_GET_EVENTS("calendarGetEvents"), EXPAND_SERIES("expandSeries");
+
+		final String name;
+
+		Operation(String name) {
+			this.name = name;
+		}
+
+	}
+
+	public interface OperationMXBean {
+
+		long getCount();
+
+		long getTotalNanos();
+
+		long getMeanNanos();
+
+		long getMaxNanos();
+
+		long getMedianNanos();
+
+		long getP99Nanos();
+
+		long[] getHistogram();
+
+		void reset();
+
+	}
+
+	public interface CalendarsMXBean {
+
+		int getUsers();
+
+		int getCalendars();
+
+		int getEvents();
+
+		int getLargestCalendarEvents();
+
+		Map<String, Integer> getEventsPerCalendar();
+
+		int getSeries();
+
+		long getSeriesOccurrences();
+
+		int getLargestSeriesOccurrences();
+
+		int getPendingTimers();
+
+	}
+
+	// a constant, so the JIT drops the timing of every operation when it's off
+	static final boolean ENABLED = Boolean.getBoolean("calendar.metrics");
+
+	private static final long DUMP_SECONDS = Long.getLong("calendar.metrics.dump", 0);
+
+	private static final Histogram[] HISTOGRAMS = new Histogram[Operation.values().length];
+
+	static {
+		for (int i = 0; i < HISTOGRAMS.length; ++i) {
+			HISTOGRAMS[i] = new Histogram();
+		}
+	}
+
+	// bucket i counts the latencies of at least 2^(i-1) and below 2^i nanoseconds, the last one everything longer
+	static class Histogram implements OperationMXBean {
+
+		static final int BUCKETS = 40;
+
+		private AtomicLongArray buckets;
+		private LongAdder count;
+		private LongAdder totalNanos;
+		private AtomicLong maxNanos;
+
+		Histogram() {
+			this.buckets = new AtomicLongArray(BUCKETS);
+			this.count = new LongAdder();
+			this.totalNanos = new LongAdder();
+			this.maxNanos = new AtomicLong();
+		}
+
+		void record(long nanos) {
+			this.buckets.incrementAndGet(Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(nanos)));
+			this.count.increment();
+			this.totalNanos.add(nanos);
+			long maxNanos = this.maxNanos.get();
+			while (nanos > maxNanos && !this.maxNanos.compareAndSet(maxNanos, nanos)) {
+				maxNanos = this.maxNanos.get();
+			}
+		}
+
+		public long getCount() {
+			return this.count.sum();
+		}
+
+		public long getTotalNanos() {
+			return this.totalNanos.sum();
+		}
+
+		public long getMeanNanos() {
+			long count = this.count.sum();
+			return count == 0 ? 0 : this.totalNanos.sum() / count;
+		}
+
+		public long getMaxNanos() {
+			return this.maxNanos.get();
+		}
+
+		public long getMedianNanos() {
+			return this.percentile(0.5);
+		}
+
+		public long getP99Nanos() {
+			return this.percentile(0.99);
+		}
+
+		public long[] getHistogram() {
+			long[] histogram = new long[BUCKETS];
+			for (int i = 0; i < BUCKETS; ++i) {
+				histogram[i] = this.buckets.get(i);
+			}
+			return histogram;
+		}
+
+		// counters are cleared one by one, so operations recorded meanwhile may be counted in part
+		public void reset() {
+			for (int i = 0; i < BUCKETS; ++i) {
+				this.buckets.set(i, 0);
+			}
+			this.count.reset();
+			this.totalNanos.reset();
+			this.maxNanos.set(0);
+		}
+
+		// the upper bound of the bucket holding the percentile, at most the longest latency seen
+		private long percentile(double fraction) {
+			long[] histogram = this.getHistogram();
+			long count = 0;
+			for (int i = 0; i < BUCKETS; ++i) {
+				count += histogram[i];
+			}
+			long rank = (long) Math.ceil(fraction * count);
+			long seen = 0;
+			for (int i = 0; i < BUCKETS && count > 0; ++i) {
+				seen += histogram[i];
+				if (seen >= rank) {
+					return i == BUCKETS - 1 ? this.maxNanos.get() : Math.min(1L << i, this.maxNanos.get());
+				}
+			}
+			return 0;
+		}
+
+	}
+
+	// read under the read lock whenever an attribute is asked for, so the calendars pay nothing in between
+	static class Gauges implements CalendarsMXBean {
+
+		private CalendarManager calendarManager;
+
+		Gauges(CalendarManager calendarManager) {
+			this.calendarManager = calendarManager;
+		}
+
+		public int getUsers() {
+			return this.calendarManager.getUsers().size();
+		}
+
+		public int getCalendars() {
+			Lock lock = this.calendarManager.readLock();
+			lock.lock();
+			try {
+				return this.calendarManager.calendarList.size();
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		// stored events, edited occurrences included, and archived rows that weren't removed
+		public int getEvents() {
+			int events = 0;
+			Map<String, Integer> eventsPerCalendar = this.getEventsPerCalendar();
+			for (Integer calendarEvents : eventsPerCalendar.values()) {
+				events += calendarEvents;
+			}
+			return events;
+		}
+
+		public int getLargestCalendarEvents() {
+			int largestCalendarEvents = 0;
+			Map<String, Integer> eventsPerCalendar = this.getEventsPerCalendar();
+			for (Integer calendarEvents : eventsPerCalendar.values()) {
+				largestCalendarEvents = Math.max(largestCalendarEvents, calendarEvents);
+			}
+			return largestCalendarEvents;
+		}
+
+		// keyed by calendar ID, since names needn't be unique
+		public Map<String, Integer> getEventsPerCalendar() {
+			LinkedHashMap<String, Integer> eventsPerCalendar = new LinkedHashMap<String, Integer>();
+			Lock lock = this.calendarManager.readLock();
+			lock.lock();
+			try {
+				for (int i = 0; i < this.calendarManager.calendarList.size(); ++i) {
+					Calendar calendar = this.calendarManager.calendarList.get(i);
+					int events = calendar.eventList.size();
+					if (calendar.archive != null) {
+						events += calendar.archive.size - calendar.archive.removedRows.cardinality();
+					}
+					eventsPerCalendar.put(calendar.calendarID.toString(), events);
+				}
+			} finally {
+				lock.unlock();
+			}
+			return eventsPerCalendar;
+		}
+
+		public int getSeries() {
+			return this.getOccurrencesPerSeries().size();
+		}
+
+		public long getSeriesOccurrences() {
+			long occurrences = 0;
+			ArrayList<Integer> occurrencesPerSeries = this.getOccurrencesPerSeries();
+			for (int i = 0; i < occurrencesPerSeries.size(); ++i) {
+				occurrences += occurrencesPerSeries.get(i);
+			}
+			return occurrences;
+		}
+
+		public int getLargestSeriesOccurrences() {
+			int largestSeriesOccurrences = 0;
+			ArrayList<Integer> occurrencesPerSeries = this.getOccurrencesPerSeries();
+			for (int i = 0; i < occurrencesPerSeries.size(); ++i) {
+				largestSeriesOccurrences = Math.max(largestSeriesOccurrences, occurrencesPerSeries.get(i));
+			}
+			return largestSeriesOccurrences;
+		}
+
+		public int getPendingTimers() {
+			return this.calendarManager.timerWheel.size();
+		}
+
+		private ArrayList<Integer> getOccurrencesPerSeries() {
+			ArrayList<Integer> occurrencesPerSeries = new ArrayList<Integer>();
+			Lock lock = this.calendarManager.readLock();
+			lock.lock();
+			try {
+				for (int i = 0; i < this.calendarManager.calendarList.size(); ++i) {
+					ArrayList<Event> seriesList = this.calendarManager.calendarList.get(i).seriesList;
+					for (int j = 0; j < seriesList.size(); ++j) {
+						occurrencesPerSeries.add(seriesList.get(j).occurrenceCount());
+					}
+				}
+			} finally {
+				lock.unlock();
+			}
+			return occurrencesPerSeries;
+		}
+
+	}
+
+	static long start() {
+		return ENABLED ? System.nanoTime() : 0;
+	}
+
+	static void record(Operation operation, long startNanos) {
+		if (ENABLED) {
+			HISTOGRAMS[operation.ordinal()].record(System.nanoTime() - startNanos);
+		}
+	}
+
+	static Histogram getHistogram(Operation operation) {
+		return HISTOGRAMS[operation.ordinal()];
+	}
+
+	// registers the MXBeans and starts the periodic dump if metrics are on
+	static void register(final CalendarManager calendarManager) {
+		if (!ENABLED) {
+			return;
+		}
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		try {
+			Operation[] operations = Operation.values();
+			for (int i = 0; i < operations.length; ++i) {
+				ObjectName name = new ObjectName("calendar:type=Operation,name=" + operations[i].name);
+				if (!server.isRegistered(name)) {
+					server.registerMBean(HISTOGRAMS[i], name);
+				}
+			}
+			ObjectName name = new ObjectName("calendar:type=Calendars");
+			if (!server.isRegistered(name)) {
+				server.registerMBean(new Gauges(calendarManager), name);
+			}
+		} catch (JMException e) {
+			throw new Error("The metrics can't be registered", e);
+		}
+		if (DUMP_SECONDS > 0) {
+			Thread dumper = new Thread("calendar-metrics") {
+				public void run() {
+					Writer out = new OutputStreamWriter(System.err);
+					while (true) {
+						try {
+							Thread.sleep(DUMP_SECONDS * 1000);
+						} catch (InterruptedException e) {
+							return;
+						}
+						dump(calendarManager, out);
+					}
+				}
+			};
+			dumper.setDaemon(true);
+			dumper.start();
+		}
+	}
+
+	static void dump(CalendarManager calendarManager, Writer out) {
+		Gauges gauges = new Gauges(calendarManager);
+		StringBuilder text = new StringBuilder();
+		text.append("Calendar metrics at ").append(LocalDateTime.now().withNano(0)).append('\n');
+		text.append("  users ").append(gauges.getUsers());
+		text.append(", calendars ").append(gauges.getCalendars());
+		text.append(", events ").append(gauges.getEvents());
+		text.append(" (largest calendar ").append(gauges.getLargestCalendarEvents()).append(')');
+		text.append(", series ").append(gauges.getSeries());
+		text.append(" (").append(gauges.getSeriesOccurrences()).append(" occurrences, largest ")
+				.append(gauges.getLargestSeriesOccurrences()).append(')');
+		text.append(", pending timers ").append(gauges.getPendingTimers()).append('\n');
+		Operation[] operations = Operation.values();
+		for (int i = 0; i < operations.length; ++i) {
+			Histogram histogram = HISTOGRAMS[i];
+			text.append("  ").append(operations[i].name);
+			text.append(": count ").append(histogram.getCount());
+			text.append(", mean ").append(histogram.getMeanNanos() / 1000).append(" us");
+			text.append(", p50 ").append(histogram.getMedianNanos() / 1000).append(" us");
+			text.append(", p99 ").append(histogram.getP99Nanos() / 1000).append(" us");
+			text.append(", max ").append(histogram.getMaxNanos() / 1000).append(" us\n");
+		}
+		try {
+			out.write(text.toString());
+			out.flush();
+		} catch (IOException e) {
+			throw new Error("The metrics can't be written", e);
+		}
+	}
+
+}
@@ -0,0 +1,42 @@
+package calendar;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.UUID;
+
+// one page of a query's results and the token to ask for the next page with, null after the last page; tokens
+// hold the position of the last result rather than a count, so a page is found without going through the ones
+// before it and changes in between don't shift it
+class Page<T> {
+
+	ArrayList<T> items;
+	String nextToken;
+
+	Page(ArrayList<T> items, String nextToken) {
+		this.items = items;
+		this.nextToken = nextToken;
+	}
+
+	static String token(LocalDateTime time, UUID id) {
+		return time.toEpochSecond(ZoneOffset.UTC) + "." + time.getNano() + "." + id;
+	}
+
+	static LocalDateTime tokenTime(String token) {
+		String[] parts = split(token);
+		return LocalDateTime.ofEpochSecond(Long.parseLong(parts[0]), Integer.parseInt(parts[1]), ZoneOffset.UTC);
+	}
+
+	static UUID tokenID(String token) {
+		return UUID.fromString(split(token)[2]);
+	}
+
+	private static String[] split(String token) {
+		String[] parts = token.split("\\.", 3);
+		if (parts.length != 3) {
+			throw new Error("The page token is invalid");
+		}
+		return parts;
+	}
+
+}
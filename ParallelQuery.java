@@ -0,0 +1,189 @@
+package calendar;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+// a query split into pieces, by calendar and, within a large calendar, by slices of start time and chunks of its
+// series; once the pieces hold enough events they run on the fork/join pool and their results are merged, in
+// start time order or in the order the pieces were added. The caller holds the read lock until the query is
+// done, so the pieces read the calendars without locking; taking the lock on a worker would wait behind a
+// queued writer that itself waits for the caller
+class ParallelQuery {
+
+	// queries over fewer events than this run on the calling thread
+	static final int PARALLEL_THRESHOLD = 16384;
+	// calendars going through more events than PARALLEL_THRESHOLD are split into pieces of about this many
+	static final int PIECE_SIZE = 4096;
+
+	abstract static class Piece {
+
+		// adds the piece's events to the list
+		abstract void run(ArrayList<Event> events);
+
+	}
+
+	private class Task extends RecursiveTask<ArrayList<Event>> {
+
+		private static final long serialVersionUID = 1L;
+
+		private int start;
+		private int end;
+
+		Task(int start, int end) {
+			this.start = start;
+			this.end = end;
+		}
+
+		@Override
+		protected ArrayList<Event> compute() {
+			if (this.end - this.start == 1) {
+				ArrayList<Event> events = new ArrayList<Event>();
+				ParallelQuery.this.pieces.get(this.start).run(events);
+				if (ParallelQuery.this.sorted) {
+					Collections.sort(events);
+				}
+				return events;
+			}
+			int middle = (this.start + this.end) >>> 1;
+			Task first = new Task(this.start, middle);
+			Task second = new Task(middle, this.end);
+			second.fork();
+			ArrayList<Event> firstEvents = first.compute();
+			ArrayList<Event> secondEvents = second.join();
+			if (!ParallelQuery.this.sorted) {
+				firstEvents.addAll(secondEvents);
+				return firstEvents;
+			}
+			return merge(firstEvents, secondEvents);
+		}
+
+	}
+
+	private ArrayList<Piece> pieces;
+	private boolean sorted;
+	private long size;
+
+	ParallelQuery(boolean sorted) {
+		this.pieces = new ArrayList<Piece>();
+		this.sorted = sorted;
+	}
+
+	// size is the number of events the piece goes through, roughly
+	void add(Piece piece, long size) {
+		this.pieces.add(piece);
+		this.size += size;
+	}
+
+	// the calendar's events and occurrences overlapping [from, to), null meaning unbounded
+	void addCalendar(final Calendar calendar, final LocalDateTime from, final LocalDateTime to) {
+		// the stored events that can overlap the window start at most longestEvent before it, and the archive
+		// finds its rows by binary search, so the estimate only counts what the query goes through
+		NavigableMap<LocalDateTime, ArrayList<Event>> window = calendar.timeline;
+		if (from != null) {
+			window = window.tailMap(from.minus(calendar.longestEvent), true);
+		}
+		if (to != null) {
+			window = window.headMap(to, false);
+		}
+		final int archiveRows = calendar.archive == null ? 0 : calendar.archive.countRows(from, to);
+		long size = window.size() + calendar.seriesList.size() + archiveRows;
+		if (size < PARALLEL_THRESHOLD) {
+			this.add(new Piece() {
+				void run(ArrayList<Event> events) {
+					calendar.addStoredEvents(events, from, to, null, null);
+					calendar.addOccurrences(events, from, to, 0, calendar.seriesList.size());
+					if (archiveRows > 0) {
+						events.addAll(calendar.archive.getEvents(calendar, from, to));
+					}
+				}
+			}, size);
+			return;
+		}
+
+		// stored events are keyed by start time, so slices of it split them without overlapping; a slice ends
+		// once it holds PIECE_SIZE events
+		LocalDateTime sliceStart = null;
+		int sliceSize = 0;
+		for (Map.Entry<LocalDateTime, ArrayList<Event>> entry : window.entrySet()) {
+			if (sliceSize >= PIECE_SIZE) {
+				this.addSlice(calendar, from, to, sliceStart, entry.getKey(), sliceSize);
+				sliceStart = entry.getKey();
+				sliceSize = 0;
+			}
+			sliceSize += entry.getValue().size();
+		}
+		if (sliceSize > 0) {
+			this.addSlice(calendar, from, to, sliceStart, null, sliceSize);
+		}
+
+		for (int start = 0; start < calendar.seriesList.size(); start += PIECE_SIZE) {
+			final int seriesStart = start;
+			final int seriesEnd = Math.min(calendar.seriesList.size(), start + PIECE_SIZE);
+			this.add(new Piece() {
+				void run(ArrayList<Event> events) {
+					calendar.addOccurrences(events, from, to, seriesStart, seriesEnd);
+				}
+			}, seriesEnd - seriesStart);
+		}
+
+		if (archiveRows > 0) {
+			this.add(new Piece() {
+				void run(ArrayList<Event> events) {
+					events.addAll(calendar.archive.getEvents(calendar, from, to));
+				}
+			}, archiveRows);
+		}
+	}
+
+	// the stored events overlapping [from, to) that start in [startFrom, startTo), null meaning unbounded
+	private void addSlice(final Calendar calendar, final LocalDateTime from, final LocalDateTime to,
+			final LocalDateTime startFrom, final LocalDateTime startTo, int size) {
+		this.add(new Piece() {
+			void run(ArrayList<Event> events) {
+				calendar.addStoredEvents(events, from, to, startFrom, startTo);
+			}
+		}, size);
+	}
+
+	// runs the pieces, in parallel if they're large enough
+	ArrayList<Event> run() {
+		if (this.size < PARALLEL_THRESHOLD || this.pieces.size() < 2 || ForkJoinPool.getCommonPoolParallelism() < 2) {
+			ArrayList<Event> events = new ArrayList<Event>();
+			for (int i = 0; i < this.pieces.size(); ++i) {
+				this.pieces.get(i).run(events);
+			}
+			if (this.sorted) {
+				Collections.sort(events);
+			}
+			return events;
+		}
+		return ForkJoinPool.commonPool().invoke(new Task(0, this.pieces.size()));
+	}
+
+	// merges two lists sorted by start time, taking the first's events first on ties
+	static ArrayList<Event> merge(ArrayList<Event> first, ArrayList<Event> second) {
+		ArrayList<Event> events = new ArrayList<Event>(first.size() + second.size());
+		int i = 0;
+		int j = 0;
+		while (i < first.size() && j < second.size()) {
+			if (second.get(j).compareTo(first.get(i)) < 0) {
+				events.add(second.get(j++));
+			} else {
+				events.add(first.get(i++));
+			}
+		}
+		while (i < first.size()) {
+			events.add(first.get(i++));
+		}
+		while (j < second.size()) {
+			events.add(second.get(j++));
+		}
+		return events;
+	}
+
+}
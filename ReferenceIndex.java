@@ -0,0 +1,99 @@
+package calendar;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.UUID;
+
+// the timers by their owner, by the calendar of their event and by their event, so removing a user, a calendar
+// or an event finds the timers that go with it without going through the others; the events of a calendar and
+// the events shared with a user are kept by Calendar and VisibilityIndex
+class ReferenceIndex {
+
+	HashMap<UUID, LinkedHashSet<CountdownTimer>> ownedTimers;
+	HashMap<UUID, LinkedHashSet<CountdownTimer>> calendarTimers;
+	// keyed by the most significant bits of the event ID, which a series shares with its occurrences
+	HashMap<Long, LinkedHashSet<CountdownTimer>> eventTimers;
+
+	ReferenceIndex() {
+		this.ownedTimers = new HashMap<UUID, LinkedHashSet<CountdownTimer>>();
+		this.calendarTimers = new HashMap<UUID, LinkedHashSet<CountdownTimer>>();
+		this.eventTimers = new HashMap<Long, LinkedHashSet<CountdownTimer>>();
+	}
+
+	void addTimer(CountdownTimer timer) {
+		add(this.ownedTimers, timer.owner, timer);
+		if (timer.event != null) {
+			add(this.calendarTimers, timer.calendar.calendarID, timer);
+			add(this.eventTimers, timer.event.getMostSignificantBits(), timer);
+		}
+	}
+
+	void removeTimer(CountdownTimer timer) {
+		remove(this.ownedTimers, timer.owner, timer);
+		if (timer.event != null) {
+			remove(this.calendarTimers, timer.calendar.calendarID, timer);
+			remove(this.eventTimers, timer.event.getMostSignificantBits(), timer);
+		}
+	}
+
+	// in the order they were added
+	ArrayList<CountdownTimer> getTimers(UUID userID) {
+		return get(this.ownedTimers, userID);
+	}
+
+	ArrayList<CountdownTimer> getCalendarTimers(UUID calendarID) {
+		return get(this.calendarTimers, calendarID);
+	}
+
+	// the timers of the event, and for a series those of its occurrences too
+	ArrayList<CountdownTimer> getEventTimers(Event event) {
+		ArrayList<CountdownTimer> timers = get(this.eventTimers, event.eventID.getMostSignificantBits());
+		boolean isSeries = event.repeatConfig.repeatable && event.originalEvent == null;
+		ArrayList<CountdownTimer> eventTimers = new ArrayList<CountdownTimer>();
+		for (int i = 0; i < timers.size(); ++i) {
+			CountdownTimer timer = timers.get(i);
+			if (timer.event.equals(event.eventID) || isSeries && Event.isOccurrenceID(timer.event)) {
+				eventTimers.add(timer);
+			}
+		}
+		return eventTimers;
+	}
+
+	// the timers of the occurrences of a series, whatever its rule is now
+	ArrayList<CountdownTimer> getOccurrenceTimers(Event series) {
+		ArrayList<CountdownTimer> timers = get(this.eventTimers, series.eventID.getMostSignificantBits());
+		ArrayList<CountdownTimer> occurrenceTimers = new ArrayList<CountdownTimer>();
+		for (int i = 0; i < timers.size(); ++i) {
+			if (Event.isOccurrenceID(timers.get(i).event)) {
+				occurrenceTimers.add(timers.get(i));
+			}
+		}
+		return occurrenceTimers;
+	}
+
+	private static <K> void add(HashMap<K, LinkedHashSet<CountdownTimer>> index, K key, CountdownTimer timer) {
+		LinkedHashSet<CountdownTimer> timers = index.get(key);
+		if (timers == null) {
+			timers = new LinkedHashSet<CountdownTimer>();
+			index.put(key, timers);
+		}
+		timers.add(timer);
+	}
+
+	private static <K> void remove(HashMap<K, LinkedHashSet<CountdownTimer>> index, K key, CountdownTimer timer) {
+		LinkedHashSet<CountdownTimer> timers = index.get(key);
+		if (timers != null) {
+			timers.remove(timer);
+			if (timers.isEmpty()) {
+				index.remove(key);
+			}
+		}
+	}
+
+	private static <K> ArrayList<CountdownTimer> get(HashMap<K, LinkedHashSet<CountdownTimer>> index, K key) {
+		LinkedHashSet<CountdownTimer> timers = index.get(key);
+		return timers == null ? new ArrayList<CountdownTimer>() : new ArrayList<CountdownTimer>(timers);
+	}
+
+}
@@ -0,0 +1,224 @@
+package calendar;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.time.LocalDateTime;
+import java.util.UUID;
+
+// writes events, calendars and timers field by field into a writer, formatting IDs, times and numbers in a
+// scratch buffer, so listing many events builds no string per event; toString() of each renders through it too
+class Renderer {
+
+	private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+	private Writer out;
+	private char[] scratch;
+
+	Renderer(Writer out) {
+		this.out = out;
+		this.scratch = new char[40];
+	}
+
+	// a buffered renderer over the current standard output; flush it before reading input
+	static Renderer standardOutput() {
+		return new Renderer(new BufferedWriter(new OutputStreamWriter(System.out), 1 << 16));
+	}
+
+	static String render(Object object) {
+		StringWriter text = new StringWriter();
+		Renderer renderer = new Renderer(text);
+		if (object instanceof Event) {
+			renderer.appendEvent((Event) object);
+		} else if (object instanceof Calendar) {
+			renderer.appendCalendar((Calendar) object);
+		} else {
+			renderer.appendTimer((CountdownTimer) object);
+		}
+		return text.toString();
+	}
+
+	Renderer appendEvent(Event event) {
+		CalendarManager calendarManager = CalendarManager.getCalendarManager();
+		try {
+			this.out.write("Event ID: ");
+			this.writeUUID(event.eventID);
+			this.out.write("\nEvent Title: ");
+			this.out.write(event.title);
+			this.out.write("\nEvent Start Time: ");
+			this.writeTime(calendarManager.toLocalTime(event.startTime));
+			this.out.write("\nEvent End Time: ");
+			this.writeTime(calendarManager.toLocalTime(event.endTime));
+			this.out.write("\nCalendar of the event: ");
+			this.out.write(event.calendar.name);
+			this.out.write("\nViewers of the event: ");
+			for (int i = 0; i < event.viewers.length; ++i) {
+				if (i > 0) {
+					this.out.write(", ");
+				}
+				this.out.write(calendarManager.getUser(event.viewers[i]).username);
+			}
+			this.out.write('\n');
+			if (event.repeatConfig.repeatable) {
+				RepeatType repeatFrequency = event.repeatConfig.repeatFrequency;
+				this.out.write("This event repeats every ");
+				if (repeatFrequency == RepeatType.DAILY) {
+					this.out.write("day ");
+				} else if (repeatFrequency == RepeatType.WEEKLY) {
+					this.out.write("week ");
+				} else if (repeatFrequency == RepeatType.MONTHLY) {
+					this.out.write("month ");
+				} else if (repeatFrequency == RepeatType.QUARTERLY) {
+					this.out.write("quarter ");
+				} else {
+					this.out.write("year ");
+				}
+				this.out.write("until ");
+				this.writeTime(calendarManager.toLocalTime(event.repeatConfig.repeatUntil));
+				this.out.write('\n');
+			}
+		} catch (IOException e) {
+			throw new Error("The event can't be written", e);
+		}
+		return this;
+	}
+
+	Renderer appendCalendar(Calendar calendar) {
+		try {
+			this.out.write(calendar.isPublic ? "Public calendar\nCalendar ID: " : "Private calendar\nCalendar ID: ");
+			this.writeUUID(calendar.calendarID);
+			this.out.write("\nCalendar Name: ");
+			this.out.write(calendar.name);
+			this.out.write("\nCalendar Creator: ");
+			this.out.write(CalendarManager.getCalendarManager().getUser(calendar.owner).username);
+			this.out.write(calendar.isVisible ? "\nCalendar Visibility: visible" : "\nCalendar Visibility: hidden");
+		} catch (IOException e) {
+			throw new Error("The calendar can't be written", e);
+		}
+		return this;
+	}
+
+	Renderer appendTimer(CountdownTimer timer) {
+		CalendarManager calendarManager = CalendarManager.getCalendarManager();
+		try {
+			this.out.write("Timer ID: ");
+			this.writeUUID(timer.timerID);
+			this.out.write("\nTimer name: ");
+			this.out.write(timer.name);
+			this.out.write("\nTimer creator: ");
+			this.out.write(calendarManager.getUser(timer.owner).username);
+			this.out.write("\nEnd Time: ");
+			this.writeTime(calendarManager.toLocalTime(timer.endTime));
+			this.out.write("\nTime remaining: ");
+			int[] remainingTime = timer.remainingTime();
+			for (int i = 0; i < remainingTime.length; ++i) {
+				if (i > 0) {
+					this.out.write(", ");
+				}
+				this.writeNumber(remainingTime[i]);
+				this.out.write(CountdownTimer.TIME_UNITS[i]);
+			}
+		} catch (IOException e) {
+			throw new Error("The timer can't be written", e);
+		}
+		return this;
+	}
+
+	Renderer appendText(String text) {
+		try {
+			this.out.write(text);
+		} catch (IOException e) {
+			throw new Error("The text can't be written", e);
+		}
+		return this;
+	}
+
+	void flush() {
+		try {
+			this.out.flush();
+		} catch (IOException e) {
+			throw new Error("The output can't be written", e);
+		}
+	}
+
+	// the same text as UUID.toString()
+	private void writeUUID(UUID id) throws IOException {
+		long mostSigBits = id.getMostSignificantBits();
+		long leastSigBits = id.getLeastSignificantBits();
+		int length = this.hex(mostSigBits >>> 32, 8, 0);
+		this.scratch[length++] = '-';
+		length = this.hex(mostSigBits >>> 16, 4, length);
+		this.scratch[length++] = '-';
+		length = this.hex(mostSigBits, 4, length);
+		this.scratch[length++] = '-';
+		length = this.hex(leastSigBits >>> 48, 4, length);
+		this.scratch[length++] = '-';
+		length = this.hex(leastSigBits, 12, length);
+		this.out.write(this.scratch, 0, length);
+	}
+
+	private int hex(long value, int digits, int offset) {
+		for (int i = digits - 1; i >= 0; --i) {
+			this.scratch[offset + i] = HEX_DIGITS[(int) (value & 0xf)];
+			value >>>= 4;
+		}
+		return offset + digits;
+	}
+
+	// the same text as LocalDateTime.toString()
+	private void writeTime(LocalDateTime time) throws IOException {
+		if (time.getYear() < 0 || time.getYear() > 9999) {
+			this.out.write(time.toString());
+			return;
+		}
+		int length = this.decimal(time.getYear(), 4, 0);
+		this.scratch[length++] = '-';
+		length = this.decimal(time.getMonthValue(), 2, length);
+		this.scratch[length++] = '-';
+		length = this.decimal(time.getDayOfMonth(), 2, length);
+		this.scratch[length++] = 'T';
+		length = this.decimal(time.getHour(), 2, length);
+		this.scratch[length++] = ':';
+		length = this.decimal(time.getMinute(), 2, length);
+		int nano = time.getNano();
+		if (time.getSecond() > 0 || nano > 0) {
+			this.scratch[length++] = ':';
+			length = this.decimal(time.getSecond(), 2, length);
+			if (nano > 0) {
+				this.scratch[length++] = '.';
+				if (nano % 1000000 == 0) {
+					length = this.decimal(nano / 1000000, 3, length);
+				} else if (nano % 1000 == 0) {
+					length = this.decimal(nano / 1000, 6, length);
+				} else {
+					length = this.decimal(nano, 9, length);
+				}
+			}
+		}
+		this.out.write(this.scratch, 0, length);
+	}
+
+	private void writeNumber(int value) throws IOException {
+		if (value < 0) {
+			this.out.write('-');
+			value = -value;
+		}
+		int digits = 1;
+		for (int rest = value / 10; rest > 0; rest /= 10) {
+			++digits;
+		}
+		this.out.write(this.scratch, 0, this.decimal(value, digits, 0));
+	}
+
+	// writes the value zero padded to the given number of digits
+	private int decimal(int value, int digits, int offset) {
+		for (int i = digits - 1; i >= 0; --i) {
+			this.scratch[offset + i] = (char) ('0' + value % 10);
+			value /= 10;
+		}
+		return offset + digits;
+	}
+
+}
@@ -0,0 +1,153 @@
+package calendar;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
+
+class SearchIndex {
+
+	private static final Pattern WORD_SEPARATOR = Pattern.compile("[^\\p{L}\\p{N}]+");
+
+	TreeMap<String, HashSet<Event>> postings;
+
+	SearchIndex() {
+		this.postings = new TreeMap<String, HashSet<Event>>();
+	}
+
+	void addEvent(Event event) {
+		ArrayList<String> tokens = tokenize(event.title);
+		for (int i = 0; i < tokens.size(); ++i) {
+			HashSet<Event> events = this.postings.get(tokens.get(i));
+			if (events == null) {
+				events = new HashSet<Event>();
+				this.postings.put(tokens.get(i), events);
+			}
+			events.add(event);
+		}
+	}
+
+	void removeEvent(Event event) {
+		ArrayList<String> tokens = tokenize(event.title);
+		for (int i = 0; i < tokens.size(); ++i) {
+			HashSet<Event> events = this.postings.get(tokens.get(i));
+			if (events != null) {
+				events.remove(event);
+				if (events.isEmpty()) {
+					this.postings.remove(tokens.get(i));
+				}
+			}
+		}
+	}
+
+	// every term must match a word of the title, the last one may also match as a prefix
+	ArrayList<Event> search(String query) {
+		ArrayList<String> terms = tokenize(query);
+		ArrayList<Event> results = new ArrayList<Event>();
+		if (terms.isEmpty()) {
+			return results;
+		}
+
+		ArrayList<HashSet<Event>> termMatches = new ArrayList<HashSet<Event>>();
+		for (int i = 0; i < terms.size(); ++i) {
+			HashSet<Event> events = i < terms.size() - 1 ? this.postings.get(terms.get(i)) : this.prefixMatches(terms.get(i));
+			if (events == null || events.isEmpty()) {
+				return results;
+			}
+			termMatches.add(events);
+		}
+
+		// intersect starting from the rarest term so the work depends on the number of matches
+		HashSet<Event> rarest = termMatches.get(0);
+		for (int i = 1; i < termMatches.size(); ++i) {
+			if (termMatches.get(i).size() < rarest.size()) {
+				rarest = termMatches.get(i);
+			}
+		}
+		ArrayList<Match> matches = new ArrayList<Match>();
+		for (Event event : rarest) {
+			boolean matchesAll = true;
+			for (int i = 0; i < termMatches.size() && matchesAll; ++i) {
+				matchesAll = termMatches.get(i).contains(event);
+			}
+			if (matchesAll) {
+				matches.add(new Match(event, score(event, terms)));
+			}
+		}
+
+		Collections.sort(matches);
+		for (int i = 0; i < matches.size(); ++i) {
+			results.add(matches.get(i).event);
+		}
+		return results;
+	}
+
+	private HashSet<Event> prefixMatches(String prefix) {
+		SortedMap<String, HashSet<Event>> words = this.postings.subMap(prefix, prefix + Character.MAX_VALUE);
+		if (words.size() == 1) {
+			return words.values().iterator().next();
+		}
+		HashSet<Event> events = new HashSet<Event>();
+		for (HashSet<Event> wordEvents : words.values()) {
+			events.addAll(wordEvents);
+		}
+		return events;
+	}
+
+	// whole-word hits count twice as much as prefix hits, and shorter titles rank higher
+	private static double score(Event event, ArrayList<String> terms) {
+		ArrayList<String> tokens = tokenize(event.title);
+		HashMap<String, Integer> counts = new HashMap<String, Integer>();
+		for (int i = 0; i < tokens.size(); ++i) {
+			Integer count = counts.get(tokens.get(i));
+			counts.put(tokens.get(i), count == null ? 1 : count + 1);
+		}
+		double score = 0;
+		for (int i = 0; i < terms.size(); ++i) {
+			for (String token : counts.keySet()) {
+				if (token.equals(terms.get(i))) {
+					score += 2 * counts.get(token);
+				} else if (token.startsWith(terms.get(i))) {
+					score += counts.get(token);
+				}
+			}
+		}
+		return score / tokens.size();
+	}
+
+	static ArrayList<String> tokenize(String text) {
+		ArrayList<String> tokens = new ArrayList<String>();
+		String[] words = WORD_SEPARATOR.split(text.toLowerCase(Locale.ROOT));
+		for (int i = 0; i < words.length; ++i) {
+			if (!words[i].isEmpty()) {
+				tokens.add(words[i]);
+			}
+		}
+		return tokens;
+	}
+
+	private static class Match implements Comparable<Match> {
+
+		Event event;
+		double score;
+
+		Match(Event event, double score) {
+			this.event = event;
+			this.score = score;
+		}
+
+		@Override
+		public int compareTo(Match match) {
+			if (this.score != match.score) {
+				return this.score > match.score ? -1 : 1;
+			}
+			return this.event.compareTo(match.event);
+		}
+
+	}
+
+}
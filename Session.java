@@ -0,0 +1,16 @@
+package calendar;
+
+import java.util.UUID;
+
+// the user a client is acting as; each client keeps its own session instead of sharing the manager's state
+class Session {
+
+	UUID userID;
+	// when on, adding or moving an event first lists the events it would overlap
+	boolean conflictDetection;
+
+	Session(UUID userID) {
+		this.userID = userID;
+	}
+
+}
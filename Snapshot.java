@@ -0,0 +1,363 @@
+package calendar;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.UUID;
+
+// binary encoding of the calendar manager's state, shared with the journal's records. A snapshot is a copy of
+// the state taken under the write lock, which only copies references and the few mutable fields, so it can be
+// encoded and written on another thread while the calendars keep changing
+class Snapshot {
+
+	private static final int MAGIC = 0x43414c53;
+	private static final int VERSION = 1;
+
+	// the fields of a calendar as they were when the snapshot was taken
+	private static class CalendarCopy {
+
+		UUID calendarID;
+		String name;
+		UUID owner;
+		boolean isPublic;
+		boolean isVisible;
+		ArrayList<EventCopy> events;
+		String archiveName;
+		BitSet removedRows;
+
+		CalendarCopy(Calendar calendar, ArrayList<User> users) {
+			this.calendarID = calendar.calendarID;
+			this.name = calendar.name;
+			this.owner = calendar.owner;
+			this.isPublic = calendar.isPublic;
+			this.isVisible = calendar.isVisible;
+			this.events = new ArrayList<EventCopy>(calendar.eventList.size());
+			for (int i = 0; i < calendar.eventList.size(); ++i) {
+				this.events.add(new EventCopy(calendar.eventList.get(i), users));
+			}
+			if (calendar.archive != null) {
+				this.archiveName = calendar.archive.directory.getName();
+				this.removedRows = (BitSet) calendar.archive.removedRows.clone();
+			}
+		}
+
+	}
+
+	// the fields of an event as they were; viewers are kept by user ID, as handles are numbered again on reading
+	private static class EventCopy {
+
+		UUID eventID;
+		String title;
+		UUID calendarID;
+		UUID[] viewers;
+		LocalDateTime startTime;
+		LocalDateTime endTime;
+		RepeatConfig repeatConfig;
+		UUID originalEvent;
+		int occurrenceIndex;
+		int[] skippedOccurrences;
+		int[] editedOccurrences;
+		int overriddenFields;
+
+		EventCopy(Event event, ArrayList<User> users) {
+			this.eventID = event.eventID;
+			this.title = event.title;
+			this.calendarID = event.calendar.calendarID;
+			this.viewers = new UUID[event.viewers.length];
+			for (int i = 0; i < event.viewers.length; ++i) {
+				this.viewers[i] = users.get(event.viewers[i]).userID;
+			}
+			this.startTime = event.startTime;
+			this.endTime = event.endTime;
+			this.repeatConfig = event.repeatConfig;
+			this.originalEvent = event.originalEvent;
+			this.occurrenceIndex = event.occurrenceIndex;
+			if (event.repeatConfig.repeatable) {
+				this.skippedOccurrences = event.skippedOccurrences.toArray();
+				this.editedOccurrences = event.editedOccurrences.toArray();
+			}
+			this.overriddenFields = event.overriddenFields;
+		}
+
+		void write(DataOutputStream out) throws IOException {
+			writeUUID(out, this.eventID);
+			out.writeUTF(this.title);
+			writeUUID(out, this.calendarID);
+			out.writeInt(this.viewers.length);
+			for (int i = 0; i < this.viewers.length; ++i) {
+				writeUUID(out, this.viewers[i]);
+			}
+			writeTime(out, this.startTime);
+			writeTime(out, this.endTime);
+			writeRepeatConfig(out, this.repeatConfig);
+			writeUUID(out, this.originalEvent);
+			out.writeInt(this.occurrenceIndex);
+			if (this.repeatConfig.repeatable) {
+				out.writeInt(this.skippedOccurrences.length);
+				for (int i = 0; i < this.skippedOccurrences.length; ++i) {
+					out.writeInt(this.skippedOccurrences[i]);
+				}
+				out.writeInt(this.editedOccurrences.length);
+				for (int i = 0; i < this.editedOccurrences.length; ++i) {
+					writeUUID(out, new UUID(this.eventID.getMostSignificantBits(), this.editedOccurrences[i]));
+				}
+			}
+		}
+
+	}
+
+	private long segment;
+	private CalendarTheme theme;
+	private int timezone;
+	private ArrayList<User> users;
+	private ArrayList<CalendarCopy> calendars;
+	private ArrayList<CountdownTimer> timers;
+
+	// the caller holds the write lock; users and timers don't change once added, so they're taken as they are
+	Snapshot(CalendarManager calendarManager, long segment) {
+		this.segment = segment;
+		this.theme = calendarManager.theme;
+		this.timezone = calendarManager.timezone;
+		this.users = calendarManager.getUsers();
+		this.calendars = new ArrayList<CalendarCopy>(calendarManager.calendarList.size());
+		for (int i = 0; i < calendarManager.calendarList.size(); ++i) {
+			this.calendars.add(new CalendarCopy(calendarManager.calendarList.get(i), calendarManager.userList));
+		}
+		this.timers = new ArrayList<CountdownTimer>();
+		for (int i = 0; i < this.users.size(); ++i) {
+			this.timers.addAll(calendarManager.referenceIndex.getTimers(this.users.get(i).userID));
+		}
+	}
+
+	// the archive generations the snapshot refers to
+	HashSet<String> getArchives() {
+		HashSet<String> archives = new HashSet<String>();
+		for (int i = 0; i < this.calendars.size(); ++i) {
+			if (this.calendars.get(i).archiveName != null) {
+				archives.add(this.calendars.get(i).archiveName);
+			}
+		}
+		return archives;
+	}
+
+	void write(DataOutputStream out) throws IOException {
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		out.writeLong(this.segment);
+		out.writeByte(this.theme.ordinal());
+		out.writeInt(this.timezone);
+
+		// handles are numbered again as the users are read back
+		out.writeInt(this.users.size());
+		for (int i = 0; i < this.users.size(); ++i) {
+			writeUser(out, this.users.get(i));
+		}
+
+		out.writeInt(this.calendars.size());
+		for (int i = 0; i < this.calendars.size(); ++i) {
+			CalendarCopy calendar = this.calendars.get(i);
+			writeUUID(out, calendar.calendarID);
+			out.writeUTF(calendar.name);
+			writeUUID(out, calendar.owner);
+			out.writeBoolean(calendar.isPublic);
+			out.writeBoolean(calendar.isVisible);
+			out.writeInt(calendar.events.size());
+			for (int j = 0; j < calendar.events.size(); ++j) {
+				EventCopy event = calendar.events.get(j);
+				event.write(out);
+				// journal records only add new events, which override nothing, so only snapshots carry this
+				out.writeByte(event.overriddenFields);
+			}
+			out.writeBoolean(calendar.archiveName != null);
+			if (calendar.archiveName != null) {
+				out.writeUTF(calendar.archiveName);
+				out.writeInt(calendar.removedRows.cardinality());
+				for (int row = calendar.removedRows.nextSetBit(0); row >= 0; row = calendar.removedRows.nextSetBit(row + 1)) {
+					out.writeInt(row);
+				}
+			}
+		}
+
+		out.writeInt(this.timers.size());
+		for (int i = 0; i < this.timers.size(); ++i) {
+			writeTimer(out, this.timers.get(i));
+		}
+	}
+
+	// loads the snapshot into an empty calendar manager and returns the first journal segment it doesn't cover
+	static long read(DataInputStream in, CalendarManager calendarManager) throws IOException {
+		if (in.readInt() != MAGIC) {
+			throw new Error("The snapshot is not readable");
+		}
+		if (in.readInt() != VERSION) {
+			throw new Error("The snapshot is not readable");
+		}
+		long segment = in.readLong();
+		calendarManager.theme = CalendarTheme.values()[in.readByte()];
+		calendarManager.timezone = in.readInt();
+
+		int users = in.readInt();
+		for (int i = 0; i < users; ++i) {
+			calendarManager.addUser(readUser(in));
+		}
+
+		int calendars = in.readInt();
+		for (int i = 0; i < calendars; ++i) {
+			Calendar calendar = readCalendar(in);
+			calendarManager.addCalendar(calendar);
+			int events = in.readInt();
+			for (int j = 0; j < events; ++j) {
+				Event event = readEvent(in);
+				event.overriddenFields = in.readByte();
+				calendar.addEvent(event);
+			}
+			calendar.archive = readArchive(in, calendarManager.journal.directory);
+		}
+
+		int timers = in.readInt();
+		for (int i = 0; i < timers; ++i) {
+			calendarManager.addTimer(readTimer(in));
+		}
+		return segment;
+	}
+
+	static void writeUser(DataOutputStream out, User user) throws IOException {
+		writeUUID(out, user.userID);
+		out.writeUTF(user.username);
+	}
+
+	static User readUser(DataInputStream in) throws IOException {
+		UUID userID = readUUID(in);
+		User user = new User(in.readUTF());
+		user.userID = userID;
+		return user;
+	}
+
+	static void writeCalendar(DataOutputStream out, Calendar calendar) throws IOException {
+		writeUUID(out, calendar.calendarID);
+		out.writeUTF(calendar.name);
+		writeUUID(out, calendar.owner);
+		out.writeBoolean(calendar.isPublic);
+		out.writeBoolean(calendar.isVisible);
+	}
+
+	static Calendar readCalendar(DataInputStream in) throws IOException {
+		UUID calendarID = readUUID(in);
+		Calendar calendar = new Calendar(in.readUTF(), readUUID(in));
+		calendar.calendarID = calendarID;
+		calendar.isPublic = in.readBoolean();
+		calendar.isVisible = in.readBoolean();
+		return calendar;
+	}
+
+	static void writeEvent(DataOutputStream out, Event event) throws IOException {
+		new EventCopy(event, CalendarManager.getCalendarManager().userList).write(out);
+	}
+
+	static Event readEvent(DataInputStream in) throws IOException {
+		UUID eventID = readUUID(in);
+		String title = in.readUTF();
+		UUID calendarID = readUUID(in);
+		int viewerCount = in.readInt();
+		ArrayList<UUID> viewers = new ArrayList<UUID>(viewerCount);
+		for (int i = 0; i < viewerCount; ++i) {
+			viewers.add(readUUID(in));
+		}
+		LocalDateTime startTime = readTime(in);
+		LocalDateTime endTime = readTime(in);
+		RepeatConfig repeatConfig = readRepeatConfig(in);
+		UUID originalEvent = readUUID(in);
+
+		Event event = new Event(title, calendarID, viewers, startTime, endTime, repeatConfig, originalEvent);
+		event.eventID = eventID;
+		event.occurrenceIndex = in.readInt();
+		if (repeatConfig.repeatable) {
+			int skippedCount = in.readInt();
+			for (int i = 0; i < skippedCount; ++i) {
+				event.skippedOccurrences.add(in.readInt());
+			}
+			int repeatingCount = in.readInt();
+			for (int i = 0; i < repeatingCount; ++i) {
+				event.editedOccurrences.add((int) readUUID(in).getLeastSignificantBits());
+			}
+		}
+		return event;
+	}
+
+	static EventArchive readArchive(DataInputStream in, File directory) throws IOException {
+		if (!in.readBoolean()) {
+			return null;
+		}
+		EventArchive archive = EventArchive.open(new File(directory, in.readUTF()));
+		int removedRows = in.readInt();
+		for (int i = 0; i < removedRows; ++i) {
+			archive.removedRows.set(in.readInt());
+		}
+		return archive;
+	}
+
+	static void writeTimer(DataOutputStream out, CountdownTimer timer) throws IOException {
+		writeUUID(out, timer.timerID);
+		out.writeUTF(timer.name);
+		writeTime(out, timer.endTime);
+		writeUUID(out, timer.owner);
+		writeUUID(out, timer.event);
+	}
+
+	static CountdownTimer readTimer(DataInputStream in) throws IOException {
+		UUID timerID = readUUID(in);
+		CountdownTimer timer = new CountdownTimer(in.readUTF(), readTime(in), readUUID(in), readUUID(in));
+		timer.timerID = timerID;
+		return timer;
+	}
+
+	static void writeRepeatConfig(DataOutputStream out, RepeatConfig repeatConfig) throws IOException {
+		out.writeBoolean(repeatConfig.repeatable);
+		writeTime(out, repeatConfig.repeatUntil);
+		out.writeByte(repeatConfig.repeatFrequency == null ? -1 : repeatConfig.repeatFrequency.ordinal());
+	}
+
+	static RepeatConfig readRepeatConfig(DataInputStream in) throws IOException {
+		Boolean repeatable = in.readBoolean();
+		LocalDateTime repeatUntil = readTime(in);
+		byte frequency = in.readByte();
+		return new RepeatConfig(repeatable, repeatUntil, frequency < 0 ? null : RepeatType.values()[frequency]);
+	}
+
+	static void writeUUID(DataOutputStream out, UUID uuid) throws IOException {
+		out.writeBoolean(uuid != null);
+		if (uuid != null) {
+			out.writeLong(uuid.getMostSignificantBits());
+			out.writeLong(uuid.getLeastSignificantBits());
+		}
+	}
+
+	static UUID readUUID(DataInputStream in) throws IOException {
+		if (!in.readBoolean()) {
+			return null;
+		}
+		return new UUID(in.readLong(), in.readLong());
+	}
+
+	static void writeTime(DataOutputStream out, LocalDateTime time) throws IOException {
+		out.writeBoolean(time != null);
+		if (time != null) {
+			out.writeLong(time.toEpochSecond(ZoneOffset.UTC));
+			out.writeInt(time.getNano());
+		}
+	}
+
+	static LocalDateTime readTime(DataInputStream in) throws IOException {
+		if (!in.readBoolean()) {
+			return null;
+		}
+		return LocalDateTime.ofEpochSecond(in.readLong(), in.readInt(), ZoneOffset.UTC);
+	}
+
+}
@@ -0,0 +1,26 @@
+package calendar;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+
+// a span of time in UTC, as found by the free/busy queries
+class TimeSlot {
+
+	LocalDateTime startTime;
+	LocalDateTime endTime;
+
+	TimeSlot(LocalDateTime startTime, LocalDateTime endTime) {
+		this.startTime = startTime;
+		this.endTime = endTime;
+	}
+
+	Duration getDuration() {
+		return Duration.between(this.startTime, this.endTime);
+	}
+
+	public String toString() {
+		CalendarManager calendarManager = CalendarManager.getCalendarManager();
+		return calendarManager.toLocalTime(this.startTime) + " - " + calendarManager.toLocalTime(this.endTime);
+	}
+
+}
@@ -0,0 +1,207 @@
+package calendar;
+
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.UUID;
+
+// hierarchical timing wheel firing countdown timers as they expire; every level has 64 slots and each slot
+// of a level spans the whole lower level, so inserting and cancelling are constant time and a single thread
+// sleeps until the next slot that holds a timer or has to be cascaded
+class TimerWheel {
+
+	interface Listener {
+
+		void timerExpired(CountdownTimer timer);
+
+	}
+
+	static final long TICK_MILLIS = 1000;
+
+	private static final int SLOT_BITS = 6;
+	private static final int SLOTS = 1 << SLOT_BITS;
+	private static final int SLOT_MASK = SLOTS - 1;
+	private static final int LEVELS = 6;
+	private static final long MAX_DELAY = (1L << (SLOT_BITS * LEVELS)) - 1;
+
+	// a pending timer, linked into the slot it's waiting in
+	private static class Entry {
+
+		CountdownTimer timer;
+		long deadline;
+		Entry previous;
+		Entry next;
+
+	}
+
+	private Entry[][] wheel;
+	private HashMap<UUID, Entry> entries;
+	private long nextTick;
+	private Listener listener;
+	private Thread worker;
+
+	TimerWheel() {
+		this.wheel = new Entry[LEVELS][SLOTS];
+		for (int level = 0; level < LEVELS; ++level) {
+			for (int slot = 0; slot < SLOTS; ++slot) {
+				// empty slots are circular lists holding only their head
+				Entry head = new Entry();
+				head.previous = head;
+				head.next = head;
+				this.wheel[level][slot] = head;
+			}
+		}
+		this.entries = new HashMap<UUID, Entry>();
+		this.nextTick = currentTick();
+	}
+
+	synchronized void setListener(Listener listener) {
+		this.listener = listener;
+	}
+
+	synchronized int size() {
+		return this.entries.size();
+	}
+
+	// timers that have already expired are left alone
+	synchronized void schedule(CountdownTimer timer) {
+		this.cancel(timer.timerID);
+		// a timer fires on the first tick that isn't before its end time
+		long deadline = Math.floorDiv(timer.endTime.toInstant(ZoneOffset.UTC).toEpochMilli() + TICK_MILLIS - 1, TICK_MILLIS);
+		if (deadline < this.nextTick) {
+			return;
+		}
+		Entry entry = new Entry();
+		entry.timer = timer;
+		entry.deadline = deadline;
+		this.entries.put(timer.timerID, entry);
+		this.insert(entry);
+		if (this.worker == null) {
+			this.worker = new Thread("calendar-timers") {
+				public void run() {
+					TimerWheel.this.work();
+				}
+			};
+			this.worker.setDaemon(true);
+			this.worker.start();
+		}
+		this.notifyAll();
+	}
+
+	synchronized void cancel(UUID timerID) {
+		Entry entry = this.entries.remove(timerID);
+		if (entry != null) {
+			unlink(entry);
+		}
+	}
+
+	// fires the timers due up to now and returns them
+	ArrayList<CountdownTimer> advance() {
+		ArrayList<CountdownTimer> expiredTimers = new ArrayList<CountdownTimer>();
+		Listener listener;
+		synchronized (this) {
+			long now = currentTick();
+			while (this.nextTick <= now) {
+				this.processTick(expiredTimers);
+				++this.nextTick;
+			}
+			listener = this.listener;
+		}
+		// callbacks run outside the lock so they may schedule or cancel timers
+		for (int i = 0; listener != null && i < expiredTimers.size(); ++i) {
+			listener.timerExpired(expiredTimers.get(i));
+		}
+		return expiredTimers;
+	}
+
+	private void work() {
+		while (true) {
+			this.advance();
+			synchronized (this) {
+				try {
+					if (this.entries.isEmpty()) {
+						this.wait();
+					} else {
+						long wakeTime = this.nextBusyTick() * TICK_MILLIS;
+						long sleepMillis = wakeTime - System.currentTimeMillis();
+						if (sleepMillis > 0) {
+							this.wait(sleepMillis);
+						}
+					}
+				} catch (InterruptedException e) {
+					return;
+				}
+			}
+		}
+	}
+
+	// the first tick with timers in the lowest level, or the next cascade if there's none before it
+	private long nextBusyTick() {
+		long tick = this.nextTick;
+		do {
+			Entry head = this.wheel[0][(int) (tick & SLOT_MASK)];
+			if (head.next != head) {
+				return tick;
+			}
+			++tick;
+		} while ((tick & SLOT_MASK) != 0);
+		return tick;
+	}
+
+	private void processTick(ArrayList<CountdownTimer> expiredTimers) {
+		long tick = this.nextTick;
+		// moves the timers of the next higher slot down whenever a level wraps around
+		for (int level = 1; level < LEVELS && ((tick >>> (SLOT_BITS * (level - 1))) & SLOT_MASK) == 0; ++level) {
+			Entry head = this.wheel[level][(int) ((tick >>> (SLOT_BITS * level)) & SLOT_MASK)];
+			Entry entry = head.next;
+			head.previous = head;
+			head.next = head;
+			while (entry != head) {
+				Entry next = entry.next;
+				this.insert(entry);
+				entry = next;
+			}
+		}
+
+		Entry head = this.wheel[0][(int) (tick & SLOT_MASK)];
+		Entry entry = head.next;
+		while (entry != head) {
+			Entry next = entry.next;
+			unlink(entry);
+			if (entry.deadline <= tick) {
+				this.entries.remove(entry.timer.timerID);
+				expiredTimers.add(entry.timer);
+			} else {
+				this.insert(entry);
+			}
+			entry = next;
+		}
+	}
+
+	private void insert(Entry entry) {
+		// timers further away than the wheel reaches wait in its farthest slot and are placed again from there
+		long deadline = Math.max(this.nextTick, Math.min(entry.deadline, this.nextTick + MAX_DELAY));
+		long delay = deadline - this.nextTick;
+		int level = 0;
+		while (level < LEVELS - 1 && delay >= 1L << (SLOT_BITS * (level + 1))) {
+			++level;
+		}
+		Entry head = this.wheel[level][(int) ((deadline >>> (SLOT_BITS * level)) & SLOT_MASK)];
+		entry.previous = head.previous;
+		entry.next = head;
+		head.previous.next = entry;
+		head.previous = entry;
+	}
+
+	private static void unlink(Entry entry) {
+		entry.previous.next = entry.next;
+		entry.next.previous = entry.previous;
+		entry.previous = entry;
+		entry.next = entry;
+	}
+
+	private static long currentTick() {
+		return System.currentTimeMillis() / TICK_MILLIS;
+	}
+
+}
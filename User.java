@@ -6,6 +6,7 @@ class User {
 
 	UUID userID;
 	String username;
+	int handle;
 
 	User(String username) {
 		this.userID = UUID.randomUUID();
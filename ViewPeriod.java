@@ -0,0 +1,54 @@
+package calendar;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.temporal.TemporalField;
+import java.time.temporal.WeekFields;
+import java.util.Locale;
+
+// periods are numbered by a key: days count from the epoch, weeks by the epoch day they start on, months from
+// year 0
+enum ViewPeriod {
+
+	DAY, WEEK, MONTH, YEAR;
+
+	private static final TemporalField DAY_OF_WEEK = WeekFields.of(Locale.getDefault()).dayOfWeek();
+
+	// the key of the period the local date falls in
+	long key(LocalDate date) {
+		if (this == DAY) {
+			return date.toEpochDay();
+		} else if (this == WEEK) {
+			return date.with(DAY_OF_WEEK, 1).toEpochDay();
+		} else if (this == MONTH) {
+			return date.getYear() * 12L + date.getMonthValue() - 1;
+		} else {
+			return date.getYear();
+		}
+	}
+
+	// the local time the period starts at
+	LocalDateTime start(long key) {
+		if (this == DAY || this == WEEK) {
+			return LocalDate.ofEpochDay(key).atStartOfDay();
+		} else if (this == MONTH) {
+			return LocalDate.of((int) Math.floorDiv(key, 12L), (int) Math.floorMod(key, 12L) + 1, 1).atStartOfDay();
+		} else {
+			return LocalDate.of((int) key, 1, 1).atStartOfDay();
+		}
+	}
+
+	LocalDateTime end(long key) {
+		LocalDateTime start = this.start(key);
+		if (this == DAY) {
+			return start.plusDays(1);
+		} else if (this == WEEK) {
+			return start.plusWeeks(1);
+		} else if (this == MONTH) {
+			return start.plusMonths(1);
+		} else {
+			return start.plusYears(1);
+		}
+	}
+
+}
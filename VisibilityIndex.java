@@ -0,0 +1,127 @@
+package calendar;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.UUID;
+
+class VisibilityIndex {
+
+	HashMap<UUID, LinkedHashSet<Calendar>> ownedCalendars;
+	LinkedHashSet<Calendar> publicCalendars;
+	HashMap<UUID, LinkedHashSet<Event>> sharedEvents;
+
+	VisibilityIndex() {
+		this.ownedCalendars = new HashMap<UUID, LinkedHashSet<Calendar>>();
+		this.publicCalendars = new LinkedHashSet<Calendar>();
+		this.sharedEvents = new HashMap<UUID, LinkedHashSet<Event>>();
+	}
+
+	void addCalendar(Calendar calendar) {
+		LinkedHashSet<Calendar> calendars = this.ownedCalendars.get(calendar.owner);
+		if (calendars == null) {
+			calendars = new LinkedHashSet<Calendar>();
+			this.ownedCalendars.put(calendar.owner, calendars);
+		}
+		calendars.add(calendar);
+		this.updateAccessibility(calendar);
+	}
+
+	void removeCalendar(Calendar calendar) {
+		LinkedHashSet<Calendar> calendars = this.ownedCalendars.get(calendar.owner);
+		if (calendars != null) {
+			calendars.remove(calendar);
+		}
+		this.publicCalendars.remove(calendar);
+	}
+
+	void updateAccessibility(Calendar calendar) {
+		if (calendar.isPublic) {
+			this.publicCalendars.add(calendar);
+		} else {
+			this.publicCalendars.remove(calendar);
+		}
+	}
+
+	void addEvent(Event event) {
+		CalendarManager calendarManager = CalendarManager.getCalendarManager();
+		for (int i = 0; i < event.viewers.length; ++i) {
+			this.shareEvent(event, calendarManager.getUser(event.viewers[i]).userID);
+		}
+	}
+
+	void removeEvent(Event event) {
+		CalendarManager calendarManager = CalendarManager.getCalendarManager();
+		for (int i = 0; i < event.viewers.length; ++i) {
+			LinkedHashSet<Event> events = this.sharedEvents.get(calendarManager.getUser(event.viewers[i]).userID);
+			if (events != null) {
+				events.remove(event);
+			}
+		}
+	}
+
+	// the owner sees every event of their calendars anyway, so only other viewers are tracked
+	void shareEvent(Event event, UUID userID) {
+		if (event.calendar.owner.equals(userID)) {
+			return;
+		}
+		LinkedHashSet<Event> events = this.sharedEvents.get(userID);
+		if (events == null) {
+			events = new LinkedHashSet<Event>();
+			this.sharedEvents.put(userID, events);
+		}
+		events.add(event);
+	}
+
+	ArrayList<Calendar> getCalendars(UUID userID, Boolean includePublic) {
+		ArrayList<Calendar> calendars = new ArrayList<Calendar>();
+		LinkedHashSet<Calendar> owned = this.ownedCalendars.get(userID);
+		if (owned != null) {
+			calendars.addAll(owned);
+		}
+		if (includePublic) {
+			for (Calendar calendar : this.publicCalendars) {
+				if (!calendar.owner.equals(userID)) {
+					calendars.add(calendar);
+				}
+			}
+		}
+		return calendars;
+	}
+
+	// events shared with the user that they can't already see through their own or public calendars
+	ArrayList<Event> getSharedEvents(UUID userID) {
+		ArrayList<Event> events = new ArrayList<Event>();
+		LinkedHashSet<Event> shared = this.sharedEvents.get(userID);
+		if (shared != null) {
+			for (Event event : shared) {
+				if (!event.calendar.isPublic) {
+					events.add(event);
+				}
+			}
+		}
+		return events;
+	}
+
+	// every event shared with the user, public calendars included
+	ArrayList<Event> getAllSharedEvents(UUID userID) {
+		LinkedHashSet<Event> shared = this.sharedEvents.get(userID);
+		return shared == null ? new ArrayList<Event>() : new ArrayList<Event>(shared);
+	}
+
+	boolean isVisible(Event event, UUID userID, Boolean includePublic) {
+		Calendar calendar = event.calendar;
+		if (!calendar.isVisible) {
+			return false;
+		}
+		if (calendar.owner.equals(userID)) {
+			return true;
+		}
+		if (!includePublic) {
+			return false;
+		}
+		LinkedHashSet<Event> shared = this.sharedEvents.get(userID);
+		return calendar.isPublic || shared != null && shared.contains(event);
+	}
+
+}